@@ -0,0 +1,290 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 缓存相关配置，对应 application.yaml 中的 hmdp.cache
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.cache")
+public class CacheProperties {
+
+    /**
+     * 进程内一级缓存
+     */
+    private Local local = new Local();
+
+    /**
+     * 防缓存穿透的布隆过滤器
+     */
+    private Bloom bloom = new Bloom();
+
+    /**
+     * 缓存值编码
+     */
+    private Codec codec = new Codec();
+
+    /**
+     * 逻辑过期数据的提前刷新
+     */
+    private EarlyRefresh earlyRefresh = new EarlyRefresh();
+
+    /**
+     * 缓存重建线程池
+     */
+    private Rebuild rebuild = new Rebuild();
+
+    /**
+     * 店铺缓存预热
+     */
+    private Warmup warmup = new Warmup();
+
+    /**
+     * 热点key探测
+     */
+    private HotKey hotKey = new HotKey();
+
+    /**
+     * 缓存失效发件箱
+     */
+    private Outbox outbox = new Outbox();
+
+    /**
+     * 按key前缀的过期策略
+     */
+    private Expiry expiry = new Expiry();
+
+    /**
+     * 异步查询
+     */
+    private Async async = new Async();
+
+    @Data
+    public static class Local {
+        /**
+         * 是否开启一级缓存
+         */
+        private boolean enabled = false;
+        /**
+         * 最大缓存条目数，超出后按LRU淘汰
+         */
+        private int maximumSize = 10_000;
+        /**
+         * 写入后的存活时间
+         */
+        private Duration ttl = Duration.ofSeconds(5);
+    }
+
+    @Data
+    public static class Bloom {
+        /**
+         * 是否开启布隆过滤器
+         */
+        private boolean enabled = false;
+        /**
+         * 店铺id过滤器
+         */
+        private BloomFilter shop = new BloomFilter();
+        /**
+         * 优惠券id过滤器
+         */
+        private BloomFilter voucher = new BloomFilter();
+    }
+
+    @Data
+    public static class BloomFilter {
+        /**
+         * 预计元素数量
+         */
+        private long expectedInsertions = 1_000_000;
+        /**
+         * 期望误判率
+         */
+        private double fpp = 0.01;
+        /**
+         * 位图内存上限
+         */
+        private DataSize maxMemory = DataSize.ofMegabytes(4);
+    }
+
+    @Data
+    public static class Codec {
+        /**
+         * 已注册二进制编解码器的类型是否以二进制写入，关闭后写入JSON，读取始终兼容两种格式
+         */
+        private boolean binaryEnabled = true;
+    }
+
+    @Data
+    public static class EarlyRefresh {
+        /**
+         * 是否开启XFetch提前刷新
+         */
+        private boolean enabled = false;
+        /**
+         * 大于1时更倾向于提前刷新，小于1时更晚刷新
+         */
+        private double beta = 1.0;
+        /**
+         * 没有记录重建耗时的数据按该耗时计算
+         */
+        private Duration defaultRebuildCost = Duration.ofMillis(50);
+    }
+
+    @Data
+    public static class Rebuild {
+        /**
+         * 重建线程数
+         */
+        private int threads = 10;
+        /**
+         * 等待队列容量，满了之后拒绝重建并继续返回旧数据
+         */
+        private int queueCapacity = 1000;
+        /**
+         * 单个key前缀同时排队和执行的重建任务上限
+         */
+        private int defaultPrefixLimit = 100;
+        /**
+         * 按key前缀单独设置的上限
+         */
+        private Map<String, Integer> prefixLimits = new HashMap<>();
+    }
+
+    @Data
+    public static class Warmup {
+        /**
+         * 是否在启动完成后预热
+         */
+        private boolean onStartup = false;
+        /**
+         * 定时全量预热的cron表达式，默认每天凌晨4点
+         */
+        private String cron = "0 0 4 * * ?";
+        /**
+         * 每批从数据库读取的行数
+         */
+        private int chunkSize = 500;
+        /**
+         * 优先预热的热门店铺数量，按销量排序
+         */
+        private int hotCount = 200;
+        /**
+         * 每秒最多读取的行数，避免压垮MySQL
+         */
+        private int maxRowsPerSecond = 2000;
+    }
+
+    @Data
+    public static class HotKey {
+        private boolean enabled = false;
+        /**
+         * 滑动窗口长度
+         */
+        private Duration window = Duration.ofSeconds(10);
+        /**
+         * 窗口分成的桶数
+         */
+        private int windowBuckets = 10;
+        /**
+         * count-min sketch 每行的计数器数量
+         */
+        private int sketchWidth = 2048;
+        /**
+         * count-min sketch 的行数，即哈希函数个数
+         */
+        private int sketchDepth = 4;
+        /**
+         * 访问采样率，(0, 1]
+         */
+        private double sampleRate = 0.1;
+        /**
+         * 窗口内访问次数达到该值时晋升为热点
+         */
+        private long threshold = 5000;
+        /**
+         * 访问次数低于 threshold*demoteRatio 时降级
+         */
+        private double demoteRatio = 0.5;
+        /**
+         * 最多同时保留的热点key数量
+         */
+        private int maxHotKeys = 100;
+        /**
+         * 热点key本地副本的有效期
+         */
+        private Duration localTtl = Duration.ofSeconds(1);
+    }
+
+    @Data
+    public static class Outbox {
+        /**
+         * 中继每批发布的最大事件数
+         */
+        private int batchSize = 100;
+        /**
+         * 第二次删除的延迟，应大于一次读库并回写缓存的耗时
+         */
+        private Duration delayedDelete = Duration.ofSeconds(1);
+        /**
+         * 事件写入后超过该时间仍未发布，由定时任务补发，覆盖提交后进程退出的情况
+         */
+        private Duration recoveryDelay = Duration.ofSeconds(30);
+        /**
+         * 最大重试次数，超过后标记为失败
+         */
+        private int maxRetries = 8;
+        /**
+         * 已发布事件的保留时间
+         */
+        private Duration retention = Duration.ofDays(1);
+    }
+
+    @Data
+    public static class Expiry {
+        /**
+         * 没有单独配置的key前缀使用的策略
+         */
+        private ExpiryPolicy defaultPolicy = new ExpiryPolicy();
+        /**
+         * key前缀 -> 过期策略，多个前缀匹配时取最长的
+         */
+        private Map<String, ExpiryPolicy> policies = new HashMap<>();
+    }
+
+    @Data
+    public static class ExpiryPolicy {
+        /**
+         * 基础过期时间，为空时使用调用方传入的时间
+         */
+        private Duration ttl;
+        /**
+         * 随机抖动的百分比，实际过期时间在 ttl*(1±jitterPercent/100) 之间
+         */
+        private int jitterPercent = 10;
+        /**
+         * 逻辑过期后还能返回旧数据的最长时间，超过后同步加载；同时作为Redis中的物理过期时间。为空时不限制
+         */
+        private Duration maxStale;
+    }
+
+    @Data
+    public static class Async {
+        /**
+         * 解码和查库的线程数，Redis读取本身不占用线程
+         */
+        private int threads = 32;
+        /**
+         * 等待队列容量，满了之后新的异步查询直接失败
+         */
+        private int queueCapacity = 10_000;
+    }
+}
@@ -13,7 +13,7 @@ public class MvcConfig implements WebMvcConfigurer {
         registry.addInterceptor(new LoginInterceptor())
                 .excludePathPatterns(
                         "/shop/**",
-                        "/voucher/**",
+                        "/voucher/list/**",
                         "/shop-type/**",
                         "/upload/**",
                         "/blog/hot",
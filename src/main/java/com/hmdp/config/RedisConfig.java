@@ -0,0 +1,79 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.SeckillOrderStatusTracker;
+import com.hmdp.utils.SeckillSoldOutFlags;
+import lombok.val;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STATUS_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_RESTOCK_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+
+@Configuration
+public class RedisConfig {
+
+    /**
+     * 处理pub/sub消息的线程池。不设置时容器为每条消息新建一个线程，秒杀期间消息很多。
+     * 不注册为bean，以免替换掉Spring Boot默认的 applicationTaskExecutor
+     */
+    private final ThreadPoolTaskExecutor listenerExecutor = new ThreadPoolTaskExecutor();
+
+    @PreDestroy
+    private void destroy() {
+        listenerExecutor.shutdown();
+    }
+
+    @Bean
+    public @NotNull RedisMessageListenerContainer redisMessageListenerContainer(
+            RedisConnectionFactory connectionFactory,
+            CacheClient cacheClient,
+            SeckillSoldOutFlags seckillSoldOutFlags,
+            SeckillOrderStatusTracker seckillOrderStatusTracker
+    ) {
+        val container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        listenerExecutor.setCorePoolSize(4);
+        listenerExecutor.setMaxPoolSize(4);
+        listenerExecutor.setQueueCapacity(10000);
+        listenerExecutor.setThreadNamePrefix("redis-listener-");
+        // 队列满时由订阅线程自己处理，消息不会丢失
+        listenerExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        listenerExecutor.initialize();
+        container.setTaskExecutor(listenerExecutor);
+        // 订阅线程一直阻塞在连接上，单独创建，不占用处理消息的线程
+        container.setSubscriptionExecutor(new SimpleAsyncTaskExecutor("redis-subscription-"));
+        // 收到缓存失效消息后清除本节点的一级缓存，一条消息可能包含多个key
+        container.addMessageListener(
+                (message, pattern) -> cacheClient.onInvalidate(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(CACHE_INVALIDATE_CHANNEL)
+        );
+        // 其他节点发现秒杀券售罄或补货后同步本节点的售罄标记
+        container.addMessageListener(
+                (message, pattern) -> seckillSoldOutFlags.onSoldOut(Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8))),
+                new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL)
+        );
+        container.addMessageListener(
+                (message, pattern) -> seckillSoldOutFlags.onRestock(Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8))),
+                new ChannelTopic(SECKILL_RESTOCK_CHANNEL)
+        );
+        // 订单处理完成后唤醒本节点上长轮询这个订单的请求
+        container.addMessageListener(
+                (message, pattern) -> seckillOrderStatusTracker.onMessage(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(SECKILL_ORDER_STATUS_CHANNEL)
+        );
+        return container;
+    }
+}
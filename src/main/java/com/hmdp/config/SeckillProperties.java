@@ -0,0 +1,157 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * 秒杀相关配置，对应 application.yaml 中的 hmdp.seckill
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.seckill")
+public class SeckillProperties {
+
+    /**
+     * 订单消费者
+     */
+    private Consumer consumer = new Consumer();
+
+    /**
+     * 库存分片
+     */
+    private Stock stock = new Stock();
+
+    /**
+     * 本地售罄标记
+     */
+    private SoldOut soldOut = new SoldOut();
+
+    /**
+     * 秒杀入口的准入控制
+     */
+    private Admission admission = new Admission();
+
+    /**
+     * 订单消息的恢复和死信处理
+     */
+    private Recovery recovery = new Recovery();
+
+    /**
+     * 订单stream的保留和裁剪
+     */
+    private Retention retention = new Retention();
+
+    /**
+     * Redis Cluster 模式
+     */
+    private Cluster cluster = new Cluster();
+
+    @Data
+    public static class Consumer {
+        /**
+         * 每次 XREADGROUP 最多读取的消息数，同一批订单在一个事务中入库
+         */
+        private int batchSize = 100;
+        /**
+         * 订单stream的分区数，所有节点必须一致，修改前需要先消费完旧分区中的消息
+         */
+        private int partitions = 8;
+        /**
+         * 本节点的消费线程数，超过分区数时按分区数计
+         */
+        private int threads = 4;
+        /**
+         * 节点名，用于组成消费者名称，为空时使用 主机名-端口。
+         * 重启后保持不变，才能接着处理自己未确认的消息
+         */
+        private String nodeName;
+    }
+
+    @Data
+    public static class Stock {
+        /**
+         * 新建秒杀券时库存拆分的分片数，1表示不分片。已创建的秒杀券不受影响
+         */
+        private int shards = 1;
+    }
+
+    @Data
+    public static class SoldOut {
+        /**
+         * 售罄标记的有效期。补货广播丢失时，最多在这段时间内继续拒绝请求
+         */
+        private Duration ttl = Duration.ofSeconds(10);
+    }
+
+    @Data
+    public static class Admission {
+        /**
+         * 是否开启准入控制，关闭后所有请求直接执行秒杀脚本
+         */
+        private boolean enabled = true;
+        /**
+         * 每件剩余库存每秒放行的请求数，全局速率 = 剩余库存 * permitsPerStock
+         */
+        private double permitsPerStock = 2;
+        /**
+         * 全局每秒最少放行的请求数，库存很少时仍能放行请求确认售罄
+         */
+        private int minPermits = 10;
+        /**
+         * 重新读取剩余库存、调整速率的间隔
+         */
+        private Duration refresh = Duration.ofSeconds(1);
+    }
+
+    @Data
+    public static class Recovery {
+        /**
+         * 恢复任务的执行间隔，单位毫秒
+         */
+        private long interval = 5000;
+        /**
+         * 待确认消息空闲超过这个时间才会被认领，同时也是失败消息的重试间隔
+         */
+        private Duration minIdle = Duration.ofSeconds(30);
+        /**
+         * 投递次数超过这个值的消息转入死信stream
+         */
+        private int maxDeliveries = 5;
+        /**
+         * 每个分区每次最多认领的消息数
+         */
+        private int batchSize = 100;
+    }
+
+    @Data
+    public static class Retention {
+        /**
+         * 裁剪stream和采集指标的间隔，单位毫秒
+         */
+        private long interval = 10000;
+        /**
+         * 已确认的消息至少保留这么久，便于排查问题；未确认的消息不会被裁剪
+         */
+        private Duration keep = Duration.ofMinutes(10);
+    }
+
+    @Data
+    public static class Cluster {
+        /**
+         * 开启后秒杀key使用 {优惠券id:分片} 作为hash tag，每个库存分片一个订单stream，
+         * 需要同时配置 spring.redis.cluster.nodes。已有的秒杀券不会迁移，切换前需要处理完旧订单
+         */
+        private boolean enabled = false;
+        /**
+         * 订单id序列号每次从全局计数器预取的数量，集群模式下计数器和秒杀key不在同一个slot，不能在脚本中自增
+         */
+        private int idStep = 1000;
+        /**
+         * 重新发现订单stream的间隔，单位毫秒
+         */
+        private long discoveryInterval = 5000;
+    }
+}
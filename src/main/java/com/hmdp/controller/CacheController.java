@@ -0,0 +1,84 @@
+package com.hmdp.controller;
+
+
+import cn.hutool.core.thread.ThreadUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.service.impl.ShopCacheWarmer;
+import com.hmdp.utils.CacheRebuildScheduler;
+import com.hmdp.utils.CacheValueCodec;
+import com.hmdp.utils.LocalCache;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ * 缓存运维接口
+ * </p>
+ */
+@RestController
+@RequestMapping("/cache")
+public class CacheController {
+
+    @Resource
+    private CacheValueCodec cacheValueCodec;
+
+    @Resource
+    private LocalCache localCache;
+
+    @Resource
+    private CacheRebuildScheduler rebuildScheduler;
+
+    @Resource
+    private ShopCacheWarmer shopCacheWarmer;
+
+    /**
+     * 查询各编码格式的负载大小与编解码耗时
+     * @return 统计数据
+     */
+    @GetMapping("/codec-stats")
+    public @NotNull Result queryCodecStats() {
+        return Result.ok(cacheValueCodec.stats());
+    }
+
+    /**
+     * 查询缓存重建的队列深度、拒绝次数与平均耗时
+     * @return 统计数据
+     */
+    @GetMapping("/rebuild-stats")
+    public @NotNull Result queryRebuildStats() {
+        return Result.ok(rebuildScheduler.stats());
+    }
+
+    /**
+     * 手动触发店铺缓存预热，在后台执行
+     * @return 无
+     */
+    @PostMapping("/warmup/shop")
+    public @NotNull Result warmUpShop() {
+        ThreadUtil.execAsync(shopCacheWarmer::warmUp, true);
+        return Result.ok();
+    }
+
+    /**
+     * 查询店铺缓存预热进度
+     * @return 进度
+     */
+    @GetMapping("/warmup/shop")
+    public @NotNull Result queryShopWarmUpProgress() {
+        return Result.ok(shopCacheWarmer.progress());
+    }
+
+    /**
+     * 查询本节点探测到的热点key
+     * @return 热点key及访问次数估计值
+     */
+    @GetMapping("/hot-keys")
+    public @NotNull Result queryHotKeys() {
+        return Result.ok(localCache.hotKeys());
+    }
+}
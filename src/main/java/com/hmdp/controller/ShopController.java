@@ -7,8 +7,10 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
 import com.hmdp.utils.SystemConstants;
+import lombok.val;
 import org.jetbrains.annotations.NotNull;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.Resource;
 
@@ -24,6 +26,11 @@ import javax.annotation.Resource;
 @RequestMapping("/shop")
 public class ShopController {
 
+    /**
+     * 异步查询店铺的超时时间，单位毫秒
+     */
+    private static final long SHOP_QUERY_TIMEOUT = 3000L;
+
     @Resource
     public IShopService shopService;
 
@@ -33,8 +40,28 @@ public class ShopController {
      * @return 商铺详情数据
      */
     @GetMapping("/{id}")
-    public @NotNull Result queryShopById(@PathVariable("id") Long id) {
-        return Result.ok(shopService.getById(id));
+    public @NotNull DeferredResult<Result> queryShopById(@PathVariable("id") Long id) {
+        // 异步查询，等待Redis期间不占用请求线程
+        val result = new DeferredResult<Result>(SHOP_QUERY_TIMEOUT, Result.fail("查询超时，请稍后重试"));
+        shopService.queryByIdAsync(id).whenComplete((r, e) -> {
+            if (e != null) {
+                // 交给统一的异常处理
+                result.setErrorResult(e);
+            } else {
+                result.setResult(r);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 根据id查询商铺卡片信息，只包含列表展示需要的字段
+     * @param id 商铺id
+     * @return 商铺卡片数据
+     */
+    @GetMapping("/{id}/card")
+    public @NotNull Result queryShopCardById(@PathVariable("id") Long id) {
+        return shopService.queryCardById(id);
     }
 
     /**
@@ -56,10 +83,9 @@ public class ShopController {
      * @return 无
      */
     @PutMapping
-    public @NotNull Result updateShop(@RequestBody Shop shop) {
-        // 写入数据库
-        shopService.updateById(shop);
-        return Result.ok();
+    public @NotNull Result updateShop(@RequestBody @NotNull Shop shop) {
+        // 写入数据库并删除缓存
+        return shopService.update(shop);
     }
 
     /**
@@ -73,12 +99,8 @@ public class ShopController {
             @RequestParam("typeId") Integer typeId,
             @RequestParam(value = "current", defaultValue = "1") Integer current
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .eq("type_id", typeId)
-                .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        // 根据类型分页查询，店铺详情批量走缓存
+        return shopService.queryByType(typeId, current);
     }
 
     /**
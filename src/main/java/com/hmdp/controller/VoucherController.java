@@ -3,6 +3,7 @@ package com.hmdp.controller;
 
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
+import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
 import org.jetbrains.annotations.NotNull;
 import org.springframework.web.bind.annotation.*;
@@ -24,6 +25,9 @@ public class VoucherController {
     @Resource
     private IVoucherService voucherService;
 
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
     /**
      * 新增普通券
      * @param voucher 优惠券信息
@@ -46,6 +50,36 @@ public class VoucherController {
         return Result.ok(voucher.getId());
     }
 
+    /**
+     * 查询秒杀券各库存分片的剩余库存
+     * @param id 优惠券id
+     * @return 各分片库存及总库存
+     */
+    @GetMapping("/seckill/{id}/stock")
+    public @NotNull Result queryStockShards(@PathVariable("id") Long id) {
+        return voucherService.queryStockShards(id);
+    }
+
+    /**
+     * 补充秒杀券库存
+     * @param id 优惠券id
+     * @param count 补充的数量
+     * @return 无
+     */
+    @PutMapping("/seckill/{id}/stock")
+    public @NotNull Result addSeckillStock(@PathVariable("id") Long id, @RequestParam("count") int count) {
+        return voucherService.addSeckillStock(id, count);
+    }
+
+    /**
+     * 重新发布所有秒杀券的时间窗口和限购数量到Redis
+     * @return 发布的秒杀券数量
+     */
+    @PostMapping("/seckill/publish")
+    public @NotNull Result publishSeckillVouchers() {
+        return Result.ok(seckillVoucherService.publishAllToRedis());
+    }
+
     /**
      * 查询店铺的优惠券列表
      * @param shopId 店铺id
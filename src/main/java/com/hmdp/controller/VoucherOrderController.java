@@ -3,13 +3,13 @@ package com.hmdp.controller;
 
 import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
+import lombok.val;
 import org.jetbrains.annotations.NotNull;
-import org.springframework.web.bind.annotation.PathVariable;
-import org.springframework.web.bind.annotation.PostMapping;
-import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.Resource;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>
@@ -22,6 +22,17 @@ import javax.annotation.Resource;
 @RestController
 @RequestMapping("/voucher-order")
 public class VoucherOrderController {
+
+    /**
+     * 长轮询订单状态最多等待的秒数
+     */
+    private static final int MAX_STATUS_WAIT = 10;
+
+    /**
+     * 长轮询请求的超时比等待时间多出的毫秒数
+     */
+    private static final long STATUS_TIMEOUT_MARGIN = 1000L;
+
     @Resource
     private IVoucherOrderService service;
 
@@ -29,4 +40,34 @@ public class VoucherOrderController {
     public @NotNull Result seckillVoucher(@PathVariable("id") Long voucherId) {
         return service.seckillVoucher(voucherId);
     }
+
+    /**
+     * 查询秒杀订单的处理状态
+     * @param id 秒杀返回的订单id
+     * @param wait 最多等待的秒数，大于0时等到订单入库或失败再返回（长轮询）
+     * @return queued、created、failed 或 unknown
+     */
+    @GetMapping("{id}/status")
+    public @NotNull DeferredResult<Result> queryOrderStatus(
+            @PathVariable("id") Long id,
+            @RequestParam(value = "wait", defaultValue = "0") Integer wait
+    ) {
+        val waitMillis = TimeUnit.SECONDS.toMillis(Math.max(0, Math.min(wait, MAX_STATUS_WAIT)));
+        if (waitMillis == 0) {
+            val result = new DeferredResult<Result>();
+            result.setResult(service.queryOrderStatus(id));
+            return result;
+        }
+        // 等待期间不占用请求线程；正常情况下由服务端在 waitMillis 后返回，这里的超时只是兜底
+        val result = new DeferredResult<Result>(waitMillis + STATUS_TIMEOUT_MARGIN, Result.fail("查询超时，请稍后重试"));
+        service.awaitOrderStatus(id, waitMillis).whenComplete((r, e) -> {
+            if (e != null) {
+                // 交给统一的异常处理
+                result.setErrorResult(e);
+            } else {
+                result.setResult(r);
+            }
+        });
+        return result;
+    }
 }
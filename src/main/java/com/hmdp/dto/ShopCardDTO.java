@@ -0,0 +1,18 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+/**
+ * 店铺列表卡片只需要的字段，从缓存hash中按字段读取
+ */
+@Data
+public class ShopCardDTO {
+    private Long id;
+    private String name;
+    private Long typeId;
+    private String area;
+    private Long avgPrice;
+    private Integer sold;
+    private Integer comments;
+    private Integer score;
+}
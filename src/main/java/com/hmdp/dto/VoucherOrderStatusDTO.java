@@ -0,0 +1,37 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+/**
+ * 秒杀订单的异步处理状态，由订单消费者写入Redis，查询时不访问数据库
+ */
+@Data
+@Accessors(chain = true)
+public class VoucherOrderStatusDTO {
+    /**
+     * 已进入订单stream，等待入库
+     */
+    public static final String QUEUED = "queued";
+    /**
+     * 已入库
+     */
+    public static final String CREATED = "created";
+    /**
+     * 处理失败，不会再重试
+     */
+    public static final String FAILED = "failed";
+    /**
+     * 状态已过期或订单不存在，需要查询订单本身
+     */
+    public static final String UNKNOWN = "unknown";
+
+    private Long orderId;
+    private Long userId;
+    private String status;
+    private String reason;
+
+    public boolean isFinished() {
+        return CREATED.equals(status) || FAILED.equals(status);
+    }
+}
@@ -51,6 +51,11 @@ public class SeckillVoucher implements Serializable {
      */
     private LocalDateTime endTime;
 
+    /**
+     * 每人限购数量
+     */
+    private Integer limitPerUser;
+
     /**
      * 更新时间
      */
@@ -0,0 +1,18 @@
+package com.hmdp.service;
+
+import com.hmdp.entity.CacheOutbox;
+import com.baomidou.mybatisplus.extension.service.IService;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * <p>
+ *  缓存失效的事务发件箱
+ * </p>
+ */
+public interface ICacheOutboxService extends IService<CacheOutbox> {
+    /**
+     * 在当前事务中记录一个缓存失效事件，事务提交后删除缓存，并在延迟后再删一次。
+     * 没有事务时立即删除
+     */
+    void invalidate(@NotNull String cacheKey);
+}
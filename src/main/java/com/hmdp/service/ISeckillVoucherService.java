@@ -2,6 +2,7 @@ package com.hmdp.service;
 
 import com.hmdp.entity.SeckillVoucher;
 import com.baomidou.mybatisplus.extension.service.IService;
+import org.jetbrains.annotations.NotNull;
 
 /**
  * <p>
@@ -13,4 +14,17 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface ISeckillVoucherService extends IService<SeckillVoucher> {
 
+    /**
+     * 把秒杀时间和每人限购数量写入Redis，由秒杀脚本校验
+     *
+     * @param shards 库存分片数，集群模式下每个分片写一份
+     */
+    void publishToRedis(@NotNull SeckillVoucher seckillVoucher, int shards);
+
+    /**
+     * 批量发布所有秒杀券，包括已经结束的
+     *
+     * @return 发布的秒杀券数量
+     */
+    int publishAllToRedis();
 }
@@ -5,6 +5,8 @@ import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * <p>
  *  服务类
@@ -16,5 +18,16 @@ import org.jetbrains.annotations.NotNull;
 public interface IShopService extends IService<Shop> {
     @NotNull Result queryById(@NotNull Long id);
 
+    @NotNull CompletableFuture<Result> queryByIdAsync(@NotNull Long id);
+
     @NotNull Result update(@NotNull Shop shop);
+
+    @NotNull Result queryByType(@NotNull Integer typeId, @NotNull Integer current);
+
+    @NotNull Result queryCardById(@NotNull Long id);
+
+    /**
+     * 累加店铺销量，只累加hash缓存中的字段，完整的店铺缓存随逻辑过期更新
+     */
+    void increaseSold(@NotNull Long id, int delta);
 }
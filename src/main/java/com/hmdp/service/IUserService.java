@@ -3,10 +3,13 @@ package com.hmdp.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import org.jetbrains.annotations.NotNull;
 
 import javax.servlet.http.HttpSession;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * <p>
@@ -19,4 +22,9 @@ import javax.servlet.http.HttpSession;
 public interface IUserService extends IService<User> {
     @NotNull Result sendCode(@NotNull String phone, @NotNull HttpSession session);
     @NotNull Result login(@NotNull LoginFormDTO loginForm, @NotNull HttpSession session);
+
+    /**
+     * 批量查询用户的公开信息，走缓存
+     */
+    @NotNull Map<Long, UserDTO> queryUserDTOs(@NotNull Collection<Long> ids);
 }
@@ -5,6 +5,9 @@ import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * <p>
  *  服务类
@@ -15,4 +18,24 @@ import org.jetbrains.annotations.NotNull;
  */
 public interface IVoucherOrderService extends IService<VoucherOrder> {
     @NotNull Result seckillVoucher(@NotNull Long voucherId);
+
+    /**
+     * 在一个事务中批量创建订单，重复投递的订单会被跳过
+     */
+    void createVoucherOrders(@NotNull List<VoucherOrder> voucherOrders);
+
+    /**
+     * 订单最终没有入库时归还Redis库存和用户的购买名额，订单已入库时什么也不做
+     */
+    void compensateOrder(@NotNull VoucherOrder order);
+
+    /**
+     * 查询当前用户秒杀订单的处理状态，只读Redis
+     */
+    @NotNull Result queryOrderStatus(@NotNull Long orderId);
+
+    /**
+     * 等待订单处理完成，最多等待 waitMillis，超时后返回当时的状态
+     */
+    @NotNull CompletableFuture<Result> awaitOrderStatus(@NotNull Long orderId, long waitMillis);
 }
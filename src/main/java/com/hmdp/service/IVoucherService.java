@@ -17,4 +17,14 @@ public interface IVoucherService extends IService<Voucher> {
     Result queryVoucherOfShop(Long shopId);
 
     void addSeckillVoucher(Voucher voucher);
+
+    /**
+     * 查询秒杀券各库存分片的剩余库存
+     */
+    Result queryStockShards(Long voucherId);
+
+    /**
+     * 补充秒杀库存，并清除各节点的售罄标记
+     */
+    Result addSeckillStock(Long voucherId, int count);
 }
@@ -0,0 +1,195 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.hmdp.config.CacheProperties;
+import com.hmdp.entity.CacheOutbox;
+import com.hmdp.mapper.CacheOutboxMapper;
+import com.hmdp.service.ICacheOutboxService;
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.CacheClient;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+/**
+ * <p>
+ * 缓存失效的事务发件箱：失效事件与业务数据在同一个事务中写入tb_cache_outbox，
+ * 提交后由中继线程批量删除缓存，延迟一段时间后再删一次，覆盖并发读者在提交前读到旧数据并回写缓存的情况。
+ * 删除失败按指数退避重试，进程退出时未发布的事件由定时任务补发
+ * </p>
+ */
+@Slf4j
+@Service
+public class CacheOutboxServiceImpl extends ServiceImpl<CacheOutboxMapper, CacheOutbox> implements ICacheOutboxService {
+
+    /**
+     * 重试间隔上限，单位秒
+     */
+    private static final long MAX_BACKOFF_SECONDS = 300;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private CacheProperties cacheProperties;
+
+    /**
+     * 已提交、等待中继发布的事件
+     */
+    private final BlockingQueue<CacheOutbox> committed = new LinkedBlockingQueue<>();
+
+    /**
+     * 一个线程运行中继，一个线程执行延迟删除
+     */
+    private final ScheduledExecutorService executor =
+            Executors.newScheduledThreadPool(2, new NamedThreadFactory("cache-outbox-", true));
+
+    private volatile boolean running = true;
+
+    @PostConstruct
+    private void init() {
+        executor.submit(this::relay);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        running = false;
+        // 队列中未发布的事件仍是待发布状态，由补发任务处理
+        executor.shutdownNow();
+    }
+
+    @Override
+    public void invalidate(@NotNull String cacheKey) {
+        val outbox = new CacheOutbox()
+                .setCacheKey(cacheKey)
+                .setStatus(CacheOutbox.STATUS_PENDING)
+                .setRetryCount(0)
+                .setNextRetryTime(LocalDateTime.now().plus(cacheProperties.getOutbox().getRecoveryDelay()));
+        save(outbox);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            committed.offer(outbox);
+            return;
+        }
+        // 事务提交后才交给中继，回滚时事件随之消失
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                committed.offer(outbox);
+            }
+        });
+    }
+
+    private void relay() {
+        val batchSize = cacheProperties.getOutbox().getBatchSize();
+        while (running) {
+            try {
+                // 1.阻塞等待第一个事件，再把队列中已有的事件一起取出
+                val first = committed.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                val batch = new ArrayList<CacheOutbox>(batchSize);
+                batch.add(first);
+                committed.drainTo(batch, batchSize - 1);
+                // 2.批量删除缓存
+                publish(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("缓存失效中继异常", e);
+            }
+        }
+    }
+
+    private void publish(@NotNull List<CacheOutbox> batch) {
+        val keys = batch.stream().map(CacheOutbox::getCacheKey).collect(Collectors.toSet());
+        try {
+            cacheClient.delete(keys);
+        } catch (Exception e) {
+            log.warn("删除缓存失败，稍后重试，keys={}", keys, e);
+            batch.forEach(this::retryLater);
+            return;
+        }
+        // 延迟双删：第二次删除成功后才标记为已发布
+        executor.schedule(() -> {
+            try {
+                cacheClient.delete(keys);
+                lambdaUpdate()
+                        .set(CacheOutbox::getStatus, CacheOutbox.STATUS_PUBLISHED)
+                        .in(CacheOutbox::getId, batch.stream().map(CacheOutbox::getId).collect(Collectors.toList()))
+                        .update();
+            } catch (Exception e) {
+                log.warn("延迟删除缓存失败，稍后重试，keys={}", keys, e);
+                batch.forEach(this::retryLater);
+            }
+        }, cacheProperties.getOutbox().getDelayedDelete().toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void retryLater(@NotNull CacheOutbox outbox) {
+        val retryCount = outbox.getRetryCount() + 1;
+        if (retryCount > cacheProperties.getOutbox().getMaxRetries()) {
+            log.error("缓存失效事件重试耗尽，key={}", outbox.getCacheKey());
+            lambdaUpdate()
+                    .set(CacheOutbox::getStatus, CacheOutbox.STATUS_FAILED)
+                    .set(CacheOutbox::getRetryCount, retryCount)
+                    .eq(CacheOutbox::getId, outbox.getId())
+                    .update();
+            return;
+        }
+        // 指数退避：2、4、8...秒，不超过上限
+        val backoff = Math.min(1L << retryCount, MAX_BACKOFF_SECONDS);
+        lambdaUpdate()
+                .set(CacheOutbox::getRetryCount, retryCount)
+                .set(CacheOutbox::getNextRetryTime, LocalDateTime.now().plusSeconds(backoff))
+                .eq(CacheOutbox::getId, outbox.getId())
+                .update();
+    }
+
+    /**
+     * 补发到期的待发布事件，包括失败重试和进程退出前未发布的事件
+     */
+    @Scheduled(fixedDelay = 5000)
+    public void republishDue() {
+        val config = cacheProperties.getOutbox();
+        val due = lambdaQuery()
+                .eq(CacheOutbox::getStatus, CacheOutbox.STATUS_PENDING)
+                .le(CacheOutbox::getNextRetryTime, LocalDateTime.now())
+                .orderByAsc(CacheOutbox::getId)
+                .last("limit " + config.getBatchSize())
+                .list();
+        if (due.isEmpty()) {
+            return;
+        }
+        // 推迟下次补发时间，避免本批发布期间被再次取出
+        lambdaUpdate()
+                .set(CacheOutbox::getNextRetryTime, LocalDateTime.now().plus(config.getRecoveryDelay()))
+                .in(CacheOutbox::getId, due.stream().map(CacheOutbox::getId).collect(Collectors.toList()))
+                .update();
+        publish(due);
+    }
+
+    /**
+     * 清理过期的已发布事件
+     */
+    @Scheduled(cron = "0 30 3 * * ?")
+    public void purgePublished() {
+        lambdaUpdate()
+                .eq(CacheOutbox::getStatus, CacheOutbox.STATUS_PUBLISHED)
+                .lt(CacheOutbox::getUpdateTime, LocalDateTime.now().minus(cacheProperties.getOutbox().getRetention()))
+                .remove();
+    }
+}
@@ -0,0 +1,389 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.thread.NamedThreadFactory;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillKeys;
+import com.hmdp.utils.SeckillMetrics;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import lombok.var;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
+import static com.hmdp.utils.RedisConstants.SECKILL_STREAMS_KEY;
+
+/**
+ * 秒杀订单消费者池。
+ * <ul>
+ *     <li>单机模式：订单按用户id分到 partitions 个stream中，每个工作线程固定负责其中一部分分区，
+ *     在一个节点内同一个用户的订单总是由同一个线程顺序处理</li>
+ *     <li>集群模式：每个秒杀券库存分片一个stream，创建秒杀券时登记在 seckill:streams 中，
+ *     定期发现新的stream并按 hash % 线程数 分给工作线程，集群中不同slot的stream不能在一次 XREADGROUP 中读取，逐个轮询；
+ *     秒杀结束并处理完所有消息后由维护任务注销</li>
+ * </ul>
+ * 消费者名称由节点名和线程编号组成，多个节点可以加入同一个消费者组。
+ * 每个节点的工作线程都读取同样的分区，组内的消息在节点之间分配，同一个用户的两个订单可能在两个节点上同时处理，
+ * 恢复任务重新处理的消息也可能和工作线程并发。这不影响正确性：一人一单和库存由秒杀脚本在Redis中保证，
+ * 入库时按订单id去重，同一个订单并发插入时主键冲突的一方整批回滚，之后重试时被跳过
+ */
+@Slf4j
+@Component
+public class SeckillOrderConsumer {
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    @Value("${server.port:8080}")
+    private int serverPort;
+
+    @Resource
+    private SeckillMetrics seckillMetrics;
+
+    @Resource
+    private SeckillKeys seckillKeys;
+
+    private String nodeName;
+
+    /**
+     * 当前所有的订单stream
+     */
+    private volatile List<String> streamKeys = Collections.emptyList();
+
+    private ExecutorService executor;
+
+    private volatile boolean running = true;
+
+    /**
+     * 消息id的时间戳部分，即消息写入stream的时间
+     */
+    static long millisOf(@Nullable String recordId) {
+        if (StrUtil.isBlank(recordId)) {
+            return 0;
+        }
+        return Long.parseLong(StrUtil.subBefore(recordId, "-", false));
+    }
+
+    @PostConstruct
+    private void init() {
+        val config = seckillProperties.getConsumer();
+        nodeName = StrUtil.blankToDefault(config.getNodeName(), NetUtil.getLocalHostName() + "-" + serverPort);
+        if (seckillKeys.isCluster()) {
+            initCluster();
+            return;
+        }
+        val partitions = config.getPartitions();
+        // 线程数超过分区数时多出来的线程没有分区可消费
+        val threads = Math.min(config.getThreads(), partitions);
+        // 1.创建消费者组，stream不存在时一并创建
+        val allKeys = new ArrayList<String>(partitions);
+        for (int p = 0; p < partitions; p++) {
+            allKeys.add(seckillKeys.partitionStreamKey(p));
+            createGroup(seckillKeys.partitionStreamKey(p));
+        }
+        streamKeys = allKeys;
+        // 2.按 分区号 % 线程数 把分区分配给工作线程
+        executor = Executors.newFixedThreadPool(threads, new NamedThreadFactory("seckill-order-", false));
+        for (int i = 0; i < threads; i++) {
+            val assigned = new ArrayList<String>();
+            for (int p = i; p < partitions; p += threads) {
+                assigned.add(seckillKeys.partitionStreamKey(p));
+            }
+            val consumer = Consumer.from(SECKILL_ORDER_GROUP, nodeName + "-" + i);
+            executor.execute(() -> consume(consumer, assigned));
+        }
+        log.info("秒杀订单消费者启动，节点 {}，线程 {} 个，分区 {} 个", nodeName, threads, partitions);
+    }
+
+    private void initCluster() {
+        discoverStreams();
+        val threads = seckillProperties.getConsumer().getThreads();
+        executor = Executors.newFixedThreadPool(threads, new NamedThreadFactory("seckill-order-", false));
+        for (int i = 0; i < threads; i++) {
+            val index = i;
+            val consumer = Consumer.from(SECKILL_ORDER_GROUP, nodeName + "-" + i);
+            executor.execute(() -> consumeCluster(consumer, index, threads));
+        }
+        log.info("秒杀订单消费者启动（集群模式），节点 {}，线程 {} 个，stream {} 个", nodeName, threads, streamKeys.size());
+    }
+
+    /**
+     * 集群模式下发现新登记的订单stream并创建消费者组
+     */
+    @Scheduled(fixedDelayString = "${hmdp.seckill.cluster.discovery-interval:5000}")
+    public void discoverStreams() {
+        if (!seckillKeys.isCluster()) {
+            return;
+        }
+        val members = stringRedisTemplate.opsForSet().members(SECKILL_STREAMS_KEY);
+        if (members == null) {
+            return;
+        }
+        val known = new HashSet<String>(streamKeys);
+        for (val streamKey : members) {
+            if (!known.contains(streamKey)) {
+                createGroup(streamKey);
+            }
+        }
+        val discovered = new ArrayList<String>(members);
+        Collections.sort(discovered);
+        streamKeys = discovered;
+    }
+
+    /**
+     * 集群模式下注销秒杀已经结束、消息都已处理完的stream，各节点下次发现时不再轮询、恢复和裁剪它
+     */
+    void retireStream(@NotNull String streamKey) {
+        stringRedisTemplate.opsForSet().remove(SECKILL_STREAMS_KEY, streamKey);
+        streamKeys = streamKeys.stream()
+                .filter(key -> !key.equals(streamKey))
+                .collect(Collectors.toList());
+        log.info("秒杀已结束且订单已处理完，注销订单stream：{}", streamKey);
+    }
+
+    /**
+     * 当前所有的订单stream，供恢复和维护任务遍历
+     */
+    @NotNull List<String> streamKeys() {
+        return streamKeys;
+    }
+
+    @PreDestroy
+    private void destroy() {
+        running = false;
+        executor.shutdownNow();
+    }
+
+    private void createGroup(@NotNull String streamKey) {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands()
+                    .xGroupCreate(streamKey.getBytes(StandardCharsets.UTF_8), SECKILL_ORDER_GROUP, ReadOffset.from("0"), true));
+        } catch (Exception e) {
+            // 消费者组已存在
+            if (!StrUtil.contains(e.getMessage(), "BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    private void consume(@NotNull Consumer consumer, @NotNull List<String> streamKeys) {
+        // 启动时先处理上次未确认的消息
+        streamKeys.forEach(streamKey -> handlePendingList(consumer, streamKey));
+        while (running) {
+            try {
+                // 1.批量获取所负责分区的订单信息 XREADGROUP GROUP g1 consumer COUNT N BLOCK 2000 STREAMS p1 p2 ... > > ...
+                val recordList = read(consumer, streamKeys, ReadOffset.lastConsumed(), true);
+                // 2.判断订单信息是否为空
+                if (recordList == null || recordList.isEmpty()) {
+                    // 如果为null，说明没有消息，继续下一次循环
+                    continue;
+                }
+                // 3.整批创建订单并确认
+                handleRecords(recordList);
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                // 读取失败，未确认的消息由恢复任务重新认领
+                log.error("读取订单异常", e);
+                sleepQuietly(1000);
+            }
+        }
+    }
+
+    /**
+     * 集群模式的工作线程：逐个非阻塞地读取分给自己的stream，所有stream都没有消息时短暂休眠
+     */
+    private void consumeCluster(@NotNull Consumer consumer, int index, int threads) {
+        val initialized = new HashSet<String>();
+        while (running) {
+            var total = 0;
+            for (val streamKey : streamKeys) {
+                if (Math.floorMod(streamKey.hashCode(), threads) != index) {
+                    continue;
+                }
+                // 第一次负责这个stream时先处理上次未确认的消息
+                if (initialized.add(streamKey)) {
+                    handlePendingList(consumer, streamKey);
+                }
+                try {
+                    val recordList = read(consumer, Collections.singletonList(streamKey), ReadOffset.lastConsumed(), false);
+                    if (recordList == null || recordList.isEmpty()) {
+                        continue;
+                    }
+                    handleRecords(recordList);
+                    total += recordList.size();
+                } catch (Exception e) {
+                    if (!running) {
+                        return;
+                    }
+                    log.error("读取订单异常，stream={}", streamKey, e);
+                }
+            }
+            if (total == 0) {
+                sleepQuietly(200);
+            }
+        }
+    }
+
+    /**
+     * 从头遍历一遍自己的pending-list，处理失败的消息留在pending-list中，由恢复任务按间隔重试
+     */
+    private void handlePendingList(@NotNull Consumer consumer, @NotNull String streamKey) {
+        var offset = ReadOffset.from("0");
+        while (running) {
+            try {
+                // 1.获取pending-list中的订单信息 XREADGROUP GROUP g1 consumer COUNT N STREAMS streamKey offset
+                val recordList = read(consumer, Collections.singletonList(streamKey), offset, false);
+                // 2.判断订单信息是否为空
+                if (recordList == null || recordList.isEmpty()) {
+                    // 如果为null，说明没有异常消息，结束循环
+                    return;
+                }
+                // 3.整批创建订单并确认
+                handleRecords(recordList);
+                // 4.从这一批之后继续读取，跳过仍然失败的消息
+                offset = ReadOffset.from(recordList.get(recordList.size() - 1).getId());
+            } catch (Exception e) {
+                log.error("读取pending-list异常，stream={}", streamKey, e);
+                return;
+            }
+        }
+    }
+
+    private void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<MapRecord<String, Object, Object>> read(
+            @NotNull Consumer consumer,
+            @NotNull List<String> streamKeys,
+            @NotNull ReadOffset offset,
+            boolean block
+    ) {
+        var options = StreamReadOptions.empty().count(seckillProperties.getConsumer().getBatchSize());
+        if (block) {
+            options = options.block(Duration.ofSeconds(2));
+        }
+        val offsets = streamKeys.stream()
+                .map(key -> StreamOffset.create(key, offset))
+                .toArray(StreamOffset[]::new);
+        return stringRedisTemplate.opsForStream().read(consumer, options, offsets);
+    }
+
+    /**
+     * 一批消息在一个事务中入库，成功后按stream分别 XACK。
+     * 整批失败时逐条重试，把有问题的消息隔离出来，只有它们留在pending-list中
+     */
+    void handleRecords(@NotNull List<MapRecord<String, Object, Object>> recordList) {
+        try {
+            createAndAcknowledge(recordList);
+            return;
+        } catch (Exception e) {
+            if (recordList.size() == 1) {
+                recordFailure(recordList.get(0), e);
+                return;
+            }
+            log.warn("批量创建订单失败，逐条重试，共 {} 条", recordList.size(), e);
+        }
+        for (val record : recordList) {
+            try {
+                createAndAcknowledge(Collections.singletonList(record));
+            } catch (Exception e) {
+                recordFailure(record, e);
+            }
+        }
+    }
+
+    private void createAndAcknowledge(@NotNull List<MapRecord<String, Object, Object>> recordList) {
+        val voucherOrders = recordList.stream()
+                .map(SeckillOrderConsumer::toVoucherOrder)
+                .collect(Collectors.toList());
+        voucherOrderService.createVoucherOrders(voucherOrders);
+        // 从写入stream到入库的端到端延迟
+        val now = System.currentTimeMillis();
+        recordList.forEach(record -> seckillMetrics.latency(now - millisOf(record.getId().getValue())));
+        recordList.stream()
+                .collect(Collectors.groupingBy(MapRecord::getStream))
+                .forEach((streamKey, records) -> stringRedisTemplate.opsForStream().acknowledge(
+                        streamKey,
+                        SECKILL_ORDER_GROUP,
+                        records.stream().map(MapRecord::getId).toArray(RecordId[]::new)
+                ));
+    }
+
+    /**
+     * 订单id由脚本中生成的序列号和时间戳拼接而成，兼容消息中直接带有订单id的旧格式
+     */
+    static @NotNull VoucherOrder toVoucherOrder(@NotNull MapRecord<String, Object, Object> record) {
+        val value = record.getValue();
+        val order = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
+        if (order.getId() == null) {
+            order.setId(RedisIdWorker.compose(
+                    Long.parseLong((String) value.get("idTime")),
+                    Long.parseLong((String) value.get("idSeq"))
+            ));
+        }
+        return order;
+    }
+
+    /**
+     * 记录最近一次失败原因，转入死信时一并写入
+     */
+    private void recordFailure(@NotNull MapRecord<String, Object, Object> record, @NotNull Exception e) {
+        log.error("创建订单失败，stream={}，id={}", record.getStream(), record.getId(), e);
+        seckillMetrics.orders(SeckillMetrics.FAILED, 1);
+        try {
+            stringRedisTemplate.opsForHash().put(
+                    seckillKeys.failureKey(record.getStream()),
+                    record.getStream() + "|" + record.getId(),
+                    e.getClass().getSimpleName() + ": " + e.getMessage()
+            );
+        } catch (Exception ex) {
+            log.warn("记录订单失败原因失败，id={}", record.getId(), ex);
+        }
+    }
+
+    /**
+     * 本节点的名称，恢复任务以 节点名-recovery 作为消费者认领消息
+     */
+    @NotNull String nodeName() {
+        return nodeName;
+    }
+}
@@ -0,0 +1,212 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.dto.VoucherOrderStatusDTO;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.RedisScripts;
+import com.hmdp.utils.SeckillKeys;
+import com.hmdp.utils.SeckillMetrics;
+import com.hmdp.utils.SeckillOrderStatusTracker;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
+
+/**
+ * 秒杀订单消息的恢复任务。用 XAUTOCLAIM 认领空闲超过 minIdle 的待确认消息，包括已下线消费者留下的消息，
+ * 每次认领都会增加投递次数，投递次数超过 maxDeliveries 的消息连同最近一次失败原因转入死信stream，
+ * 订单没有入库时同时归还Redis库存和用户的购买名额。
+ * 每个节点都会执行，XAUTOCLAIM 认领后空闲时间清零，同一条消息不会被两个节点同时认领
+ */
+@Slf4j
+@Component
+public class SeckillOrderRecovery {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisScripts redisScripts;
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    @Resource
+    private SeckillOrderConsumer seckillOrderConsumer;
+
+    @Resource
+    private SeckillMetrics seckillMetrics;
+
+    @Resource
+    private SeckillKeys seckillKeys;
+
+    @Resource
+    private SeckillOrderStatusTracker seckillOrderStatusTracker;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    /**
+     * stream -> 下次 XAUTOCLAIM 的扫描起点
+     */
+    private final Map<String, String> cursors = new ConcurrentHashMap<>();
+
+    @Scheduled(fixedDelayString = "${hmdp.seckill.recovery.interval:5000}")
+    public void recover() {
+        for (val streamKey : seckillOrderConsumer.streamKeys()) {
+            try {
+                recover(streamKey);
+            } catch (Exception e) {
+                log.warn("恢复订单消息失败，stream={}", streamKey, e);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void recover(@NotNull String streamKey) {
+        val config = seckillProperties.getRecovery();
+        val consumer = Consumer.from(SECKILL_ORDER_GROUP, seckillOrderConsumer.nodeName() + "-recovery");
+        // 1.认领空闲的待确认消息 XAUTOCLAIM stream g1 consumer minIdle cursor COUNT n
+        val result = stringRedisTemplate.execute(
+                redisScripts.get("stream_autoclaim", List.class),
+                Collections.singletonList(streamKey),
+                SECKILL_ORDER_GROUP,
+                consumer.getName(),
+                Long.toString(config.getMinIdle().toMillis()),
+                cursors.getOrDefault(streamKey, "0-0"),
+                Integer.toString(config.getBatchSize())
+        );
+        if (result == null || result.size() < 2) {
+            return;
+        }
+        cursors.put(streamKey, (String) result.get(0));
+        val claimed = new ArrayList<MapRecord<String, Object, Object>>();
+        for (val entry : (List<List<Object>>) result.get(1)) {
+            val record = toRecord(streamKey, entry);
+            if (record != null) {
+                claimed.add(record);
+            }
+        }
+        if (claimed.isEmpty()) {
+            return;
+        }
+        seckillMetrics.orders(SeckillMetrics.CLAIMED, claimed.size());
+        // 2.查询认领后的投递次数
+        val deliveries = deliveries(streamKey, consumer, claimed);
+        // 3.投递次数超限的转入死信，其余重新处理
+        val retry = new ArrayList<MapRecord<String, Object, Object>>(claimed.size());
+        for (val record : claimed) {
+            val count = deliveries.getOrDefault(record.getId().getValue(), 0L);
+            if (count > config.getMaxDeliveries()) {
+                deadLetter(record, count);
+            } else {
+                retry.add(record);
+            }
+        }
+        if (!retry.isEmpty()) {
+            log.info("重新处理订单消息 {} 条，stream={}", retry.size(), streamKey);
+            seckillOrderConsumer.handleRecords(retry);
+        }
+    }
+
+    /**
+     * XAUTOCLAIM 返回的单条消息 [id, [k1, v1, ...]]，消息已被删除时字段为空
+     */
+    @SuppressWarnings("unchecked")
+    private @Nullable MapRecord<String, Object, Object> toRecord(@NotNull String streamKey, @NotNull List<Object> entry) {
+        val id = (String) entry.get(0);
+        val fields = entry.size() > 1 ? (List<Object>) entry.get(1) : null;
+        if (fields == null || fields.isEmpty()) {
+            // 原消息已不存在，直接确认
+            stringRedisTemplate.opsForStream().acknowledge(streamKey, SECKILL_ORDER_GROUP, id);
+            return null;
+        }
+        val value = new LinkedHashMap<Object, Object>();
+        for (int i = 0; i + 1 < fields.size(); i += 2) {
+            value.put(fields.get(i), fields.get(i + 1));
+        }
+        return StreamRecords.mapBacked(value).withStreamKey(streamKey).withId(RecordId.of(id));
+    }
+
+    /**
+     * 逐条查询认领消息的投递次数。按区间查询时，本消费者在同一区间内已经持有的其他消息会占满 COUNT，
+     * 新认领的消息查不到，投递次数被当作0，永远不会转入死信
+     */
+    private @NotNull Map<String, Long> deliveries(
+            @NotNull String streamKey,
+            @NotNull Consumer consumer,
+            @NotNull List<MapRecord<String, Object, Object>> claimed
+    ) {
+        val deliveries = new HashMap<String, Long>(claimed.size());
+        for (val record : claimed) {
+            val id = record.getId().getValue();
+            val pending = stringRedisTemplate.opsForStream()
+                    .pending(streamKey, consumer, Range.closed(id, id), 1);
+            for (val message : pending) {
+                deliveries.put(message.getIdAsString(), message.getTotalDeliveryCount());
+            }
+        }
+        return deliveries;
+    }
+
+    private void deadLetter(@NotNull MapRecord<String, Object, Object> record, long deliveries) {
+        val reason = stringRedisTemplate.execute(
+                redisScripts.get("stream_dead_letter", String.class),
+                Arrays.asList(
+                        record.getStream(),
+                        seckillKeys.deadLetterKey(record.getStream()),
+                        seckillKeys.failureKey(record.getStream())
+                ),
+                SECKILL_ORDER_GROUP,
+                record.getId().getValue(),
+                Long.toString(deliveries)
+        );
+        seckillMetrics.orders(SeckillMetrics.DEAD_LETTERED, 1);
+        log.error("订单消息投递 {} 次仍失败，已转入死信，stream={}，id={}，value={}",
+                deliveries, record.getStream(), record.getId(), record.getValue());
+        VoucherOrder order;
+        try {
+            order = SeckillOrderConsumer.toVoucherOrder(record);
+        } catch (Exception e) {
+            log.error("死信消息无法解析为订单，id={}", record.getId(), e);
+            return;
+        }
+        // 订单不会再入库，和库存不足被丢弃的订单一样归还库存和购买名额；已入库的订单不归还
+        try {
+            voucherOrderService.compensateOrder(order);
+        } catch (Exception e) {
+            log.error("归还死信订单的Redis库存失败，id={}", order.getId(), e);
+        }
+        // 通知等待下单结果的用户
+        try {
+            seckillOrderStatusTracker.publish(Collections.singletonList(new VoucherOrderStatusDTO()
+                    .setOrderId(order.getId())
+                    .setUserId(order.getUserId())
+                    .setStatus(VoucherOrderStatusDTO.FAILED)
+                    .setReason(reason)));
+        } catch (Exception e) {
+            log.warn("发布订单失败状态失败，id={}", record.getId(), e);
+        }
+    }
+}
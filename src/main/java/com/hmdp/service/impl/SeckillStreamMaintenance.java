@@ -0,0 +1,100 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.utils.RedisScripts;
+import com.hmdp.utils.SeckillKeys;
+import com.hmdp.utils.SeckillMetrics;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
+
+/**
+ * 订单stream的定期维护：按消费者组的确认位置裁剪已经处理完的消息，同时采集各分区的长度、
+ * 待确认数量、最早待确认消息的等待时间和消费延迟。
+ * 裁剪位置取 最早的待确认消息、最后投递的消息、当前时间-keep 三者中最小的一个，未确认的消息不会被删除。
+ * 集群模式下还会注销秒杀已经结束、消息都已处理完的stream
+ */
+@Slf4j
+@Component
+public class SeckillStreamMaintenance {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisScripts redisScripts;
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    @Resource
+    private SeckillMetrics seckillMetrics;
+
+    @Resource
+    private SeckillOrderConsumer seckillOrderConsumer;
+
+    @Resource
+    private SeckillKeys seckillKeys;
+
+    @Scheduled(fixedDelayString = "${hmdp.seckill.retention.interval:10000}")
+    public void maintain() {
+        for (val streamKey : seckillOrderConsumer.streamKeys()) {
+            try {
+                trim(streamKey);
+                if (seckillKeys.isCluster()) {
+                    retireIfDrained(streamKey);
+                }
+            } catch (Exception e) {
+                log.warn("裁剪订单stream失败，stream={}", streamKey, e);
+            }
+        }
+    }
+
+    /**
+     * 集群模式下stream随秒杀券不断增加，秒杀结束且消息都已确认后注销，空闲时的Redis负载不再随秒杀券数量增长
+     */
+    private void retireIfDrained(@NotNull String streamKey) {
+        val drained = stringRedisTemplate.execute(
+                redisScripts.get("stream_retire", Long.class),
+                Arrays.asList(streamKey, seckillKeys.voucherKeyOfStream(streamKey)),
+                SECKILL_ORDER_GROUP
+        );
+        if (drained != null && drained == 1) {
+            seckillOrderConsumer.retireStream(streamKey);
+        }
+    }
+
+    private void trim(@NotNull String streamKey) {
+        val now = System.currentTimeMillis();
+        val keepAfter = now - seckillProperties.getRetention().getKeep().toMillis();
+        // 1.裁剪并返回 [裁剪数量, stream长度, 待确认数量, 最早的待确认id, 最后投递的id, 最新的id]
+        val result = stringRedisTemplate.execute(
+                redisScripts.get("stream_trim", List.class),
+                Collections.singletonList(streamKey),
+                SECKILL_ORDER_GROUP,
+                keepAfter + "-0"
+        );
+        if (result == null || result.size() < 6) {
+            return;
+        }
+        // 2.上报指标
+        seckillMetrics.trimmed(streamKey, (Long) result.get(0));
+        seckillMetrics.length(streamKey, (Long) result.get(1));
+        val pending = (Long) result.get(2);
+        seckillMetrics.pending(streamKey, pending);
+        seckillMetrics.pendingAge(streamKey,
+                pending > 0 ? now - SeckillOrderConsumer.millisOf((String) result.get(3)) : 0);
+        seckillMetrics.lag(streamKey, Math.max(0,
+                SeckillOrderConsumer.millisOf((String) result.get(5)) - SeckillOrderConsumer.millisOf((String) result.get(4))));
+    }
+}
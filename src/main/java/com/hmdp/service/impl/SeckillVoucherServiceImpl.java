@@ -4,8 +4,25 @@ import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.mapper.SeckillVoucherMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.SeckillKeys;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import lombok.var;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SHARDS_KEY;
+
 /**
  * <p>
  * 秒杀优惠券表，与优惠券是一对一关系 服务实现类
@@ -14,7 +31,90 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2022-01-04
  */
+@Slf4j
 @Service
 public class SeckillVoucherServiceImpl extends ServiceImpl<SeckillVoucherMapper, SeckillVoucher> implements ISeckillVoucherService {
 
+    /**
+     * 批量发布时每批读取的秒杀券数量
+     */
+    private static final int PUBLISH_BATCH = 500;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillKeys seckillKeys;
+
+    /**
+     * 启动时发布一次，覆盖在这个功能之前创建、Redis中还没有时间窗口的秒杀券。
+     * 已经结束的秒杀券也要发布，否则剩余的库存没有时间窗口保护，又可以被抢购
+     */
+    @PostConstruct
+    private void init() {
+        val count = publishAllToRedis();
+        log.info("已发布 {} 个秒杀券的时间窗口和限购数量", count);
+    }
+
+    @Override
+    public void publishToRedis(@NotNull SeckillVoucher seckillVoucher, int shards) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            write((StringRedisConnection) connection, seckillVoucher, shards);
+            return null;
+        });
+    }
+
+    @Override
+    public int publishAllToRedis() {
+        var lastId = 0L;
+        var count = 0;
+        while (true) {
+            // 1.按id分批读取秒杀券
+            val vouchers = lambdaQuery()
+                    .gt(SeckillVoucher::getVoucherId, lastId)
+                    .orderByAsc(SeckillVoucher::getVoucherId)
+                    .last("limit " + PUBLISH_BATCH)
+                    .list();
+            if (vouchers.isEmpty()) {
+                return count;
+            }
+            // 2.一次读取这一批的库存分片数
+            val shardKeys = vouchers.stream()
+                    .map(v -> SECKILL_SHARDS_KEY + v.getVoucherId())
+                    .collect(Collectors.toList());
+            val shardValues = stringRedisTemplate.opsForValue().multiGet(shardKeys);
+            val shards = new HashMap<Long, Integer>(vouchers.size());
+            for (int i = 0; i < vouchers.size(); i++) {
+                val value = shardValues == null ? null : shardValues.get(i);
+                shards.put(vouchers.get(i).getVoucherId(), value == null ? 1 : Integer.parseInt(value));
+            }
+            // 3.一次pipeline写入这一批
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                val conn = (StringRedisConnection) connection;
+                vouchers.forEach(v -> write(conn, v, shards.get(v.getVoucherId())));
+                return null;
+            });
+            count += vouchers.size();
+            lastId = vouchers.get(vouchers.size() - 1).getVoucherId();
+        }
+    }
+
+    private void write(@NotNull StringRedisConnection conn, @NotNull SeckillVoucher voucher, int shards) {
+        val zone = ZoneId.systemDefault();
+        val fields = new HashMap<String, String>(4);
+        val limit = voucher.getLimitPerUser() == null ? 1 : voucher.getLimitPerUser();
+        fields.put("limit", Integer.toString(limit));
+        if (voucher.getBeginTime() != null) {
+            fields.put("begin", Long.toString(voucher.getBeginTime().atZone(zone).toInstant().toEpochMilli()));
+        }
+        if (voucher.getEndTime() != null) {
+            fields.put("end", Long.toString(voucher.getEndTime().atZone(zone).toInstant().toEpochMilli()));
+        }
+        // 和库存key一样不过期：缺少这个hash时脚本不校验时间，过期后已结束的秒杀券又能被抢购。
+        // 之前的版本给hash设置了过期时间，这里一并清除
+        for (val key : seckillKeys.voucherKeys(voucher.getVoucherId(), shards)) {
+            conn.hMSet(key, fields);
+            conn.persist(key);
+        }
+    }
 }
@@ -0,0 +1,155 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.core.thread.ThreadUtil;
+import com.hmdp.config.CacheProperties;
+import com.hmdp.entity.Shop;
+import com.hmdp.service.IShopService;
+import com.hmdp.utils.CacheClient;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_LOGICAL_TTL;
+
+/**
+ * 店铺缓存预热：先写热门店铺，再按id顺序分批读取tb_shop，用pipeline写入逻辑过期数据
+ */
+@Slf4j
+@Component
+public class ShopCacheWarmer {
+
+    @Resource
+    private IShopService shopService;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private CacheProperties cacheProperties;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private volatile long total;
+    private volatile long warmed;
+    private volatile long lastId;
+    private volatile LocalDateTime startTime;
+    private volatile LocalDateTime endTime;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (cacheProperties.getWarmup().isOnStartup()) {
+            // 不阻塞启动流程
+            ThreadUtil.execAsync(this::warmUp, true);
+        }
+    }
+
+    @Scheduled(cron = "${hmdp.cache.warmup.cron:0 0 4 * * ?}")
+    public void scheduledWarmUp() {
+        warmUp();
+    }
+
+    /**
+     * 执行一次全量预热，已有预热在执行时直接返回false
+     */
+    public boolean warmUp() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            doWarmUp();
+        } catch (Exception e) {
+            log.error("店铺缓存预热失败，lastId={}", lastId, e);
+        } finally {
+            endTime = LocalDateTime.now();
+            running.set(false);
+        }
+        return true;
+    }
+
+    private void doWarmUp() {
+        val config = cacheProperties.getWarmup();
+        total = shopService.count();
+        warmed = 0;
+        lastId = 0;
+        startTime = LocalDateTime.now();
+        endTime = null;
+        val begin = System.currentTimeMillis();
+        // 1.优先预热热门店铺
+        val hotIds = new HashSet<Long>();
+        if (config.getHotCount() > 0) {
+            val start = System.currentTimeMillis();
+            val hotShops = shopService.query()
+                    .orderByDesc("sold")
+                    .last("limit " + config.getHotCount())
+                    .list();
+            write(hotShops, System.currentTimeMillis() - start);
+            hotShops.forEach(shop -> hotIds.add(shop.getId()));
+            throttle(begin, config.getMaxRowsPerSecond());
+        }
+        // 2.按id顺序分批读取，跳过已预热的热门店铺
+        List<Shop> chunk;
+        do {
+            val start = System.currentTimeMillis();
+            chunk = shopService.lambdaQuery()
+                    .gt(Shop::getId, lastId)
+                    .orderByAsc(Shop::getId)
+                    .last("limit " + config.getChunkSize())
+                    .list();
+            if (chunk.isEmpty()) {
+                break;
+            }
+            lastId = chunk.get(chunk.size() - 1).getId();
+            write(chunk.stream().filter(shop -> !hotIds.contains(shop.getId())).collect(Collectors.toList()),
+                    System.currentTimeMillis() - start);
+            throttle(begin, config.getMaxRowsPerSecond());
+        } while (chunk.size() == config.getChunkSize());
+        log.info("店铺缓存预热完成，共 {} 条，耗时 {} ms", warmed, System.currentTimeMillis() - begin);
+    }
+
+    private void write(@NotNull List<Shop> shops, long rebuildCost) {
+        cacheClient.setBatchWithLogicalExpire(
+                CACHE_SHOP_KEY, shops, Shop::getId, CACHE_SHOP_LOGICAL_TTL, TimeUnit.SECONDS, rebuildCost);
+        warmed += shops.size();
+    }
+
+    /**
+     * 按已读取的行数限速：进度超前于 maxRowsPerSecond 时休眠补齐
+     */
+    private void throttle(long begin, int maxRowsPerSecond) {
+        if (maxRowsPerSecond <= 0) {
+            return;
+        }
+        val expectedMillis = warmed * 1000 / maxRowsPerSecond;
+        val elapsedMillis = System.currentTimeMillis() - begin;
+        if (expectedMillis > elapsedMillis) {
+            ThreadUtil.sleep(expectedMillis - elapsedMillis);
+        }
+    }
+
+    public @NotNull Map<String, Object> progress() {
+        val map = new LinkedHashMap<String, Object>();
+        map.put("running", running.get());
+        map.put("total", total);
+        map.put("warmed", warmed);
+        map.put("percent", total == 0 ? 0 : Math.min(100.0, warmed * 100.0 / total));
+        map.put("lastId", lastId);
+        map.put("startTime", startTime);
+        map.put("endTime", endTime);
+        return map;
+    }
+}
@@ -1,21 +1,36 @@
 package com.hmdp.service.impl;
 
+import com.hmdp.config.CacheProperties;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopCardDTO;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
+import com.hmdp.service.ICacheOutboxService;
 import com.hmdp.service.IShopService;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.RedisBloomFilter;
+import com.hmdp.utils.SystemConstants;
 import lombok.val;
 import org.jetbrains.annotations.NotNull;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
+import static com.hmdp.utils.RedisConstants.BLOOM_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_HASH_KEY;
 import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_LOGICAL_TTL;
 import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
 
 /**
@@ -29,16 +44,65 @@ import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
+    @Resource
+    private CacheClient cacheClient;
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
-    private CacheClient cacheClient;
+    private CacheProperties cacheProperties;
+
+    @Resource
+    private ICacheOutboxService cacheOutboxService;
+
+    /**
+     * 重建布隆过滤器时每批读取的id数量
+     */
+    private static final int BLOOM_REBUILD_BATCH = 1000;
+
+    @PostConstruct
+    private void initBloomFilter() {
+        val config = cacheProperties.getBloom();
+        if (!config.isEnabled()) {
+            return;
+        }
+        val shopConfig = config.getShop();
+        val bloomFilter = new RedisBloomFilter(
+                stringRedisTemplate,
+                BLOOM_SHOP_KEY,
+                shopConfig.getExpectedInsertions(),
+                shopConfig.getFpp(),
+                shopConfig.getMaxMemory().toBytes()
+        );
+        // 过滤器尚未建立时按id顺序分批读取tb_shop，全量重建
+        bloomFilter.rebuild(lastId -> lambdaQuery()
+                .select(Shop::getId)
+                .gt(Shop::getId, lastId)
+                .orderByAsc(Shop::getId)
+                .last("limit " + BLOOM_REBUILD_BATCH)
+                .list()
+                .stream()
+                .map(Shop::getId)
+                .collect(Collectors.toList()));
+        cacheClient.registerBloomFilter(CACHE_SHOP_KEY, bloomFilter);
+        cacheClient.registerBloomFilter(CACHE_SHOP_HASH_KEY, bloomFilter);
+    }
+
+    @Override
+    public boolean save(Shop shop) {
+        val success = super.save(shop);
+        if (success) {
+            // 同步布隆过滤器
+            cacheClient.onInsert(CACHE_SHOP_KEY, shop.getId());
+        }
+        return success;
+    }
 
     @Override
     public @NotNull Result queryById(@NotNull Long id) {
         val shop = cacheClient
-               .queryWithLogicalExpire(CACHE_SHOP_KEY, id, Shop.class, this::getById, 20L, TimeUnit.SECONDS);
+                .queryWithLogicalExpire(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_LOGICAL_TTL, TimeUnit.SECONDS);
 
         if (shop == null) {
             return Result.fail("店铺不存在！");
@@ -47,6 +111,13 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return Result.ok(shop);
     }
 
+    @Override
+    public @NotNull CompletableFuture<Result> queryByIdAsync(@NotNull Long id) {
+        return cacheClient
+                .queryWithLogicalExpireAsync(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_LOGICAL_TTL, TimeUnit.SECONDS)
+                .thenApply(shop -> shop == null ? Result.fail("店铺不存在！") : Result.ok(shop));
+    }
+
     @Override
     @Transactional
     public @NotNull Result update(@NotNull Shop shop) {
@@ -56,8 +127,53 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         }
         // 1.更新数据库
         updateById(shop);
-        // 2.删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
+        // 2.在同一个事务中记录失效事件，提交后再删除缓存
+        cacheOutboxService.invalidate(CACHE_SHOP_KEY + id);
+        cacheOutboxService.invalidate(CACHE_SHOP_HASH_KEY + id);
         return Result.ok();
     }
+
+    @Override
+    public @NotNull Result queryCardById(@NotNull Long id) {
+        // 只从hash缓存中读取卡片需要的字段
+        val card = cacheClient.queryHashFields(
+                CACHE_SHOP_HASH_KEY, id, ShopCardDTO.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        if (card == null) {
+            return Result.fail("店铺不存在！");
+        }
+        return Result.ok(card);
+    }
+
+    @Override
+    @Transactional
+    public void increaseSold(@NotNull Long id, int delta) {
+        // 1.更新数据库
+        update().setSql("sold = sold + " + delta).eq("id", id).update();
+        // 2.hash缓存只累加一个字段，事务提交后再累加，回滚时缓存不受影响；
+        // 完整的店铺缓存不主动失效，由逻辑过期追上，避免热门店铺每次下单都击穿缓存
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            cacheClient.incrementHashField(CACHE_SHOP_HASH_KEY + id, "sold", delta);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                cacheClient.incrementHashField(CACHE_SHOP_HASH_KEY + id, "sold", delta);
+            }
+        });
+    }
+
+    @Override
+    public @NotNull Result queryByType(@NotNull Integer typeId, @NotNull Integer current) {
+        // 1.数据库只分页查询id
+        val page = query()
+                .select("id")
+                .eq("type_id", typeId)
+                .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
+        val ids = page.getRecords().stream().map(Shop::getId).collect(Collectors.toList());
+        // 2.一次往返批量读取缓存，未命中的再批量查库
+        val shops = cacheClient.queryBatchWithLogicalExpire(
+                CACHE_SHOP_KEY, ids, Shop.class, this::listByIds, Shop::getId, CACHE_SHOP_LOGICAL_TTL, TimeUnit.SECONDS);
+        return Result.ok(new ArrayList<>(shops.values()));
+    }
 }
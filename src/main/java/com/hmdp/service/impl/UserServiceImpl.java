@@ -9,6 +9,7 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.RegexUtils;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
@@ -19,8 +20,11 @@ import org.springframework.stereotype.Service;
 
 import javax.servlet.http.HttpSession;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -38,8 +42,11 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
 
     private final StringRedisTemplate stringRedisTemplate;
 
-    public UserServiceImpl(StringRedisTemplate stringRedisTemplate) {
+    private final CacheClient cacheClient;
+
+    public UserServiceImpl(StringRedisTemplate stringRedisTemplate, CacheClient cacheClient) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.cacheClient = cacheClient;
     }
 
     @Override
@@ -95,4 +102,20 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
 
         return Result.ok();
     }
+
+    @Override
+    public @NotNull Map<Long, UserDTO> queryUserDTOs(@NotNull Collection<Long> ids) {
+        // 只缓存公开字段，避免把手机号、密码写入缓存
+        return cacheClient.queryBatchWithPassThrough(
+                CACHE_USER_KEY,
+                ids,
+                UserDTO.class,
+                missIds -> listByIds(missIds).stream()
+                        .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
+                        .collect(Collectors.toList()),
+                UserDTO::getId,
+                CACHE_USER_TTL,
+                TimeUnit.MINUTES
+        );
+    }
 }
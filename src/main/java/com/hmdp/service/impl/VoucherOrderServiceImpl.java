@@ -1,31 +1,48 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.config.SeckillProperties;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.VoucherOrderStatusDTO;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.RedisScripts;
+import com.hmdp.utils.SeckillAdmission;
+import com.hmdp.utils.SeckillKeys;
+import com.hmdp.utils.SeckillOrderStatusTracker;
+import com.hmdp.utils.SeckillSoldOutFlags;
 import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
 import lombok.val;
+import lombok.var;
 import org.jetbrains.annotations.NotNull;
-import org.redisson.api.RedissonClient;
-import org.springframework.core.io.ClassPathResource;
-import org.springframework.data.redis.connection.stream.*;
+import org.jetbrains.annotations.Nullable;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
-import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
-import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STATUS_TTL;
+import static com.hmdp.utils.RedisConstants.SECKILL_SHARDS_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
 
 /**
  * <p>
@@ -35,148 +52,359 @@ import java.util.concurrent.Executors;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
 
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
-    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    /**
+     * 秒杀脚本的失败返回值：库存不足、重复下单或超过限购数量、不是秒杀券、秒杀尚未开始、秒杀已经结束
+     */
+    private static final long STOCK_EMPTY = -1;
+    private static final long DUPLICATE_ORDER = -2;
+    private static final long NOT_SECKILL = -3;
+    private static final long NOT_STARTED = -4;
+    private static final long ENDED = -5;
+    private static final long NOT_ADMITTED = -6;
 
-    static {
-        SECKILL_SCRIPT = new DefaultRedisScript<>();
-        SECKILL_SCRIPT.setLocation(new ClassPathResource("lua/seckill.lua"));
-        SECKILL_SCRIPT.setResultType(Long.class);
-    }
+    /**
+     * 优惠券id -> 库存分片数
+     */
+    private final Map<Long, Integer> voucherShards = new ConcurrentHashMap<>();
 
     @Resource
     private ISeckillVoucherService seckillVoucherService;
 
+    @Resource
+    private RedisScripts redisScripts;
+
     @Resource
     private RedisIdWorker redisIdWorker;
 
     @Resource
-    private RedissonClient redissonClient;
+    private SeckillKeys seckillKeys;
+
+    @Resource
+    private SeckillProperties seckillProperties;
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
-    @PostConstruct
-    private void init() {
-        SECKILL_ORDER_EXECUTOR.submit(() ->
-        {
-            while (true) {
-                try {
-                    // 1.获取消息队列中的订单信息 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS s1 >
-                    val recordList = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create("stream.orders", ReadOffset.lastConsumed())
-                    );
-                    // 2.判断订单信息是否为空
-                    if (recordList == null || recordList.isEmpty()) {
-                        // 如果为null，说明没有消息，继续下一次循环
-                        continue;
-                    }
-                    // 解析数据
-                    val record = recordList.get(0);
-                    val voucherOrder = parseVoucherOrder(record);
-                    // 3.创建订单
-                    createVoucherOrder(voucherOrder);
-                    // 4.确认消息 XACK
-                    stringRedisTemplate.opsForStream().acknowledge("s1", "g1", record.getId());
-                } catch (Exception e) {
-                    log.error("处理订单异常", e);
-                    handlePendingList();
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private SeckillSoldOutFlags soldOutFlags;
+
+    @Resource
+    private SeckillOrderStatusTracker orderStatusTracker;
+
+    @Resource
+    private SeckillAdmission seckillAdmission;
+
+    /**
+     * 批量创建订单。一人一单和库存已由Lua脚本在Redis中保证，这里只需要：
+     * 跳过已入库的订单（消息被重复投递时），按优惠券合并扣减库存，再批量插入。
+     * 同一个用户的订单可能在多个节点上并发调用，不依赖按用户加锁
+     */
+    @Override
+    @Transactional
+    public void createVoucherOrders(@NotNull List<VoucherOrder> voucherOrders) {
+        val statuses = new ArrayList<VoucherOrderStatusDTO>(voucherOrders.size());
+        val failed = new ArrayList<VoucherOrder>();
+        // 5.按订单id去重，排除已经入库的订单
+        val orders = new LinkedHashMap<Long, VoucherOrder>();
+        voucherOrders.forEach(order -> orders.put(order.getId(), order));
+        listByIds(orders.keySet()).forEach(existing -> {
+            orders.remove(existing.getId());
+            statuses.add(orderStatus(existing, VoucherOrderStatusDTO.CREATED, null));
+        });
+        // 6.按优惠券分组，每个优惠券只执行一次 stock = stock - k
+        val toSave = new ArrayList<VoucherOrder>(orders.size());
+        val byVoucher = orders.values().stream().collect(Collectors.groupingBy(VoucherOrder::getVoucherId));
+        byVoucher.forEach((voucherId, list) -> {
+            if (deductStock(voucherId, list.size())) {
+                toSave.addAll(list);
+                return;
+            }
+            // 数据库库存与Redis不一致，逐个扣减，扣不到的订单丢弃
+            for (val order : list) {
+                if (deductStock(voucherId, 1)) {
+                    toSave.add(order);
+                } else {
+                    log.error("库存不足，丢弃订单：{}", order.getId());
+                    failed.add(order);
+                    statuses.add(orderStatus(order, VoucherOrderStatusDTO.FAILED, "库存不足"));
                 }
             }
         });
+        // 7.批量保存订单
+        if (!toSave.isEmpty()) {
+            saveBatch(toSave);
+        }
+        toSave.forEach(order -> statuses.add(orderStatus(order, VoucherOrderStatusDTO.CREATED, null)));
+        // 8.事务提交后再发布订单状态，回滚时用户仍然看到排队中
+        publishOrderStatus(statuses);
+        // 9.丢弃的订单在事务提交后归还Redis库存和购买名额，回滚时整批重试，不能提前归还
+        compensateFailedOrders(failed);
     }
 
-    private void handlePendingList() {
-        while (true) {
-            try {
-                // 1.获取pending-list中的订单信息 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS s1 0
-                val recordList = stringRedisTemplate.opsForStream().read(
-                        Consumer.from("g1", "c1"),
-                        StreamReadOptions.empty().count(1),
-                        StreamOffset.create("stream.orders", ReadOffset.from("0"))
-                );
-                // 2.判断订单信息是否为空
-                if (recordList == null || recordList.isEmpty()) {
-                    // 如果为null，说明没有异常消息，结束循环
-                    break;
-                }
-                val record = recordList.get(0);
-                val voucherOrder = parseVoucherOrder(record);
-                // 3.创建订单
-                createVoucherOrder(voucherOrder);
-                // 4.确认消息 XACK
-                stringRedisTemplate.opsForStream().acknowledge("s1", "g1", record.getId());
-            } catch (Exception e) {
-                log.error("处理订单异常", e);
+    private void compensateFailedOrders(@NotNull List<VoucherOrder> failed) {
+        if (failed.isEmpty()) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            failed.forEach(this::compensate);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                failed.forEach(order -> {
+                    try {
+                        compensate(order);
+                    } catch (Exception e) {
+                        log.error("归还订单的Redis库存失败，id={}", order.getId(), e);
+                    }
+                });
             }
+        });
+    }
+
+    @Override
+    public void compensateOrder(@NotNull VoucherOrder order) {
+        if (getById(order.getId()) != null) {
+            return;
         }
+        compensate(order);
     }
 
-    private @NotNull VoucherOrder parseVoucherOrder(@NotNull MapRecord<String, Object, Object> record) {
-        val value = record.getValue();
-        return BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
+    /**
+     * 撤销秒杀脚本对这个订单的修改。库存归还到用户所在的分片，即使当初是从相邻分片预扣的，总库存也不变；
+     * 用户的购买名额已经释放过时不重复归还
+     */
+    private void compensate(@NotNull VoucherOrder order) {
+        val voucherId = order.getVoucherId();
+        val userId = order.getUserId();
+        val shards = stockShards(voucherId);
+        val shard = shards <= 1 ? -1 : (int) Math.floorMod(userId, (long) shards);
+        val released = stringRedisTemplate.execute(
+                redisScripts.get("seckill_compensate", Long.class),
+                Arrays.asList(
+                        seckillKeys.stockKey(voucherId, shard),
+                        seckillKeys.orderKey(voucherId, shard),
+                        seckillKeys.voucherKey(voucherId, shard)
+                ),
+                userId.toString()
+        );
+        if (released != null && released == 1) {
+            soldOutFlags.clearSoldOut(voucherId);
+        }
     }
 
-    public void createVoucherOrder(@NotNull VoucherOrder voucherOrder) {
-        // 5.一人一单
-        val userId = voucherOrder.getUserId();
-        val voucherId = voucherOrder.getVoucherId();
+    private static @NotNull VoucherOrderStatusDTO orderStatus(
+            @NotNull VoucherOrder order,
+            @NotNull String status,
+            @Nullable String reason
+    ) {
+        return new VoucherOrderStatusDTO()
+                .setOrderId(order.getId())
+                .setUserId(order.getUserId())
+                .setStatus(status)
+                .setReason(reason);
+    }
 
-        val lock = redissonClient.getLock("lock:order" + userId);
-        val isLock = lock.tryLock();
-        if (!isLock) {
-            Result.fail("请勿重复下单！");
+    private void publishOrderStatus(@NotNull List<VoucherOrderStatusDTO> statuses) {
+        if (statuses.isEmpty()) {
             return;
         }
-
-        try {
-            // 6.判断是否已经下单
-            val count = lambdaQuery().eq(VoucherOrder::getUserId, userId)
-                    .eq(VoucherOrder::getVoucherId, voucherId).count();
-            if (count > 0) {
-                Result.fail("请勿重复下单！");
-                return;
-            }
-            // 7.生成订单号
-            val success = seckillVoucherService
-                    .update()
-                    .setSql("stock = stock - 1")
-                    .eq("voucher_id", voucherId)
-                    .gt("stock", 0)
-                    .update();
-            if (!success) {
-                Result.fail("库存不足！");
-                return;
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            orderStatusTracker.publish(statuses);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                try {
+                    orderStatusTracker.publish(statuses);
+                } catch (Exception e) {
+                    // 订单已经入库，状态只影响查询，过期后按订单本身查询
+                    log.warn("发布订单状态失败，共 {} 条", statuses.size(), e);
+                }
             }
-            // 8.保存订单
-            save(voucherOrder);
-            Result.ok();
-        } finally {
-            lock.unlock();
+        });
+    }
+
+    @Override
+    public @NotNull Result queryOrderStatus(@NotNull Long orderId) {
+        val userId = UserHolder.getUser().getId();
+        return Result.ok(toUserStatus(orderId, userId, orderStatusTracker.get(orderId)));
+    }
+
+    @Override
+    public @NotNull CompletableFuture<Result> awaitOrderStatus(@NotNull Long orderId, long waitMillis) {
+        // 回调在其他线程执行，先取出当前用户
+        val userId = UserHolder.getUser().getId();
+        return orderStatusTracker.await(orderId, waitMillis)
+                .thenApply(status -> Result.ok(toUserStatus(orderId, userId, status)));
+    }
+
+    /**
+     * 只能查询自己的订单；Redis中没有结果时，订单id中的时间戳还在状态有效期内的视为排队中，否则为未知
+     */
+    private static @NotNull VoucherOrderStatusDTO toUserStatus(
+            @NotNull Long orderId,
+            @NotNull Long userId,
+            @Nullable VoucherOrderStatusDTO status
+    ) {
+        if (status != null) {
+            return userId.equals(status.getUserId())
+                    ? status
+                    : new VoucherOrderStatusDTO().setOrderId(orderId).setStatus(VoucherOrderStatusDTO.UNKNOWN);
         }
+        val age = RedisIdWorker.timestamp(LocalDateTime.now()) - RedisIdWorker.timestampOf(orderId);
+        val queued = age >= 0 && age <= TimeUnit.MINUTES.toSeconds(SECKILL_ORDER_STATUS_TTL);
+        return new VoucherOrderStatusDTO()
+                .setOrderId(orderId)
+                .setStatus(queued ? VoucherOrderStatusDTO.QUEUED : VoucherOrderStatusDTO.UNKNOWN);
+    }
+
+    private boolean deductStock(@NotNull Long voucherId, int count) {
+        return seckillVoucherService
+                .update()
+                .setSql("stock = stock - " + count)
+                .eq("voucher_id", voucherId)
+                .ge("stock", count)
+                .update();
     }
 
     @Override
     public @NotNull Result seckillVoucher(@NotNull Long voucherId) {
+        // 本节点已知售罄，直接返回，不访问Redis
+        if (soldOutFlags.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
         val userId = UserHolder.getUser().getId();
-        val orderId = redisIdWorker.nextId("order");
+        // 订单id的时间戳在本地生成，序列号由脚本自增（集群模式下从本地号段中分配），一次秒杀只需要一次 EVALSHA
+        val now = LocalDateTime.now();
 
+        val shards = stockShards(voucherId);
+        if (shards == 0) {
+            return Result.fail("优惠券不存在");
+        }
+        // 准入控制：请求远多于库存时，多余的请求先被本地令牌桶拒绝，不访问Redis；
+        // 分片的令牌桶在秒杀脚本中检查，不额外执行一次 EVALSHA
+        if (!seckillAdmission.tryAcquire(voucherId, shards)) {
+            return Result.fail("系统繁忙，请稍后重试");
+        }
+        val rate = seckillAdmission.shardRate(voucherId, shards);
+        if (shards == 1) {
+            return seckillResult(voucherId, now, executeSeckill(voucherId, userId, now, -1, false, rate));
+        }
+        // 库存分片：用户固定落在一个分片上，一人一单只在这个分片里判断
+        val home = (int) Math.floorMod(userId, (long) shards);
+        var result = executeSeckill(voucherId, userId, now, home, false, rate);
+        // 所在分片已售罄，依次向相邻分片预扣库存，再回到所在分片下单
+        for (int i = 1; result == STOCK_EMPTY && i < shards; i++) {
+            val stockKey = seckillKeys.stockKey(voucherId, (home + i) % shards);
+            val reserved = stringRedisTemplate.execute(
+                    redisScripts.get("seckill_reserve", Long.class), Collections.singletonList(stockKey));
+            if (reserved == null || reserved != 0) {
+                continue;
+            }
+            result = executeSeckill(voucherId, userId, now, home, true, rate);
+            if (result <= 0) {
+                // 下单失败（重复下单或不在秒杀时间内），归还预扣的库存
+                stringRedisTemplate.opsForValue().increment(stockKey);
+            }
+            break;
+        }
+        return seckillResult(voucherId, now, result);
+    }
+
+    private @NotNull Result seckillResult(@NotNull Long voucherId, @NotNull LocalDateTime now, long result) {
+        if (result == NOT_SECKILL) {
+            // 按未分片缓存的分片数可能来自布隆过滤器的误判，或者请求早于秒杀券创建，下次重新读取
+            voucherShards.remove(voucherId);
+            return Result.fail("优惠券不存在");
+        }
+        if (result == NOT_STARTED) {
+            return Result.fail("秒杀尚未开始");
+        }
+        if (result == ENDED) {
+            return Result.fail("秒杀已经结束");
+        }
+        if (result == NOT_ADMITTED) {
+            seckillAdmission.rejectedByShard();
+            return Result.fail("系统繁忙，请稍后重试");
+        }
+        if (result == STOCK_EMPTY) {
+            // 所有分片都已售罄
+            soldOutFlags.markSoldOut(voucherId);
+        }
+        if (result <= 0) {
+            return Result.fail("秒杀失败");
+        }
+        return Result.ok(RedisIdWorker.compose(RedisIdWorker.timestamp(now), result));
+    }
+
+    /**
+     * 脚本访问的key都通过 KEYS 声明。集群模式下库存、已下单用户、秒杀券信息、准入令牌桶和订单stream在同一个slot，
+     * 序列号计数器在另一个slot，改为预先从本地号段中分配
+     *
+     * @param shard    库存分片，未分片时为-1
+     * @param reserved 库存是否已从其他分片预扣
+     * @param rate     分片令牌桶每秒放行的请求数，0表示不限流
+     * @return 成功时返回订单id的序列号；失败时返回 STOCK_EMPTY、DUPLICATE_ORDER、NOT_SECKILL、NOT_STARTED、ENDED 或 NOT_ADMITTED
+     */
+    private long executeSeckill(
+            @NotNull Long voucherId,
+            @NotNull Long userId,
+            @NotNull LocalDateTime now,
+            int shard,
+            boolean reserved,
+            double rate
+    ) {
+        val keys = new ArrayList<String>(6);
+        keys.add(seckillKeys.stockKey(voucherId, shard));
+        keys.add(seckillKeys.orderKey(voucherId, shard));
+        keys.add(seckillKeys.orderStreamKey(voucherId, shard, userId));
+        keys.add(seckillKeys.voucherKey(voucherId, shard));
+        keys.add(seckillKeys.admitKey(voucherId, shard));
+        var preallocated = "";
+        if (seckillKeys.isCluster()) {
+            preallocated = Long.toString(
+                    redisIdWorker.nextSequence("order", now, seckillProperties.getCluster().getIdStep()));
+        } else {
+            keys.add(RedisIdWorker.counterKey("order", now));
+        }
         val result = stringRedisTemplate.execute(
-                SECKILL_SCRIPT,
-                Collections.emptyList(),
+                redisScripts.get("seckill", Long.class),
+                keys,
                 voucherId.toString(),
                 userId.toString(),
-                Long.toString(orderId)
+                Long.toString(RedisIdWorker.timestamp(now)),
+                reserved ? "1" : "0",
+                preallocated,
+                Double.toString(rate)
         );
+        return result == null ? STOCK_EMPTY : result;
+    }
 
-        if (result != 0)
-            return Result.fail("秒杀失败");
-
-        return Result.ok(orderId);
+    /**
+     * 秒杀券的库存分片数，创建后不会改变，读取一次后缓存在本地；没有记录的旧秒杀券按未分片处理，同样缓存。
+     * 只有本地没有缓存时才检查布隆过滤器，布隆过滤器判断优惠券一定不存在时返回0
+     */
+    private int stockShards(@NotNull Long voucherId) {
+        val cached = voucherShards.get(voucherId);
+        if (cached != null) {
+            return cached;
+        }
+        val value = stringRedisTemplate.opsForValue().get(SECKILL_SHARDS_KEY + voucherId);
+        if (value == null && !cacheClient.mightExist(SECKILL_STOCK_KEY, voucherId)) {
+            return 0;
+        }
+        val shards = value == null ? 1 : Integer.parseInt(value);
+        voucherShards.put(voucherId, shards);
+        return shards;
     }
 }
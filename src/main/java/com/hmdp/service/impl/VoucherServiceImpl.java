@@ -1,21 +1,39 @@
 package com.hmdp.service.impl;
 
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.config.CacheProperties;
+import com.hmdp.config.SeckillProperties;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.Voucher;
 import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.RedisBloomFilter;
+import com.hmdp.utils.SeckillKeys;
+import com.hmdp.utils.SeckillSoldOutFlags;
 import lombok.val;
 import org.jetbrains.annotations.NotNull;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
 
+import static com.hmdp.utils.RedisConstants.BLOOM_VOUCHER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_SHARDS_KEY;
 import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STREAMS_KEY;
 
 /**
  * <p>
@@ -32,6 +50,58 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     private ISeckillVoucherService seckillVoucherService;
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private CacheProperties cacheProperties;
+    @Resource
+    private SeckillProperties seckillProperties;
+    @Resource
+    private SeckillSoldOutFlags soldOutFlags;
+    @Resource
+    private SeckillKeys seckillKeys;
+
+    /**
+     * 重建布隆过滤器时每批读取的id数量
+     */
+    private static final int BLOOM_REBUILD_BATCH = 1000;
+
+    @PostConstruct
+    private void initBloomFilter() {
+        val config = cacheProperties.getBloom();
+        if (!config.isEnabled()) {
+            return;
+        }
+        val voucherConfig = config.getVoucher();
+        val bloomFilter = new RedisBloomFilter(
+                stringRedisTemplate,
+                BLOOM_VOUCHER_KEY,
+                voucherConfig.getExpectedInsertions(),
+                voucherConfig.getFpp(),
+                voucherConfig.getMaxMemory().toBytes()
+        );
+        bloomFilter.rebuild(lastId -> lambdaQuery()
+                .select(Voucher::getId)
+                .gt(Voucher::getId, lastId)
+                .orderByAsc(Voucher::getId)
+                .last("limit " + BLOOM_REBUILD_BATCH)
+                .list()
+                .stream()
+                .map(Voucher::getId)
+                .collect(Collectors.toList()));
+        // 秒杀库存key只会为已存在的优惠券创建
+        cacheClient.registerBloomFilter(SECKILL_STOCK_KEY, bloomFilter);
+    }
+
+    @Override
+    public boolean save(Voucher voucher) {
+        val success = super.save(voucher);
+        if (success) {
+            // 同步布隆过滤器
+            cacheClient.onInsert(SECKILL_STOCK_KEY, voucher.getId());
+        }
+        return success;
+    }
 
     @Override
     public @NotNull Result queryVoucherOfShop(Long shopId) {
@@ -50,10 +120,106 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
                         .setVoucherId(voucher.getId())
                         .setStock(voucher.getStock())
                         .setBeginTime(voucher.getBeginTime())
-                        .setEndTime(voucher.getEndTime());
+                        .setEndTime(voucher.getEndTime())
+                        .setLimitPerUser(voucher.getLimitPerUser() == null ? 1 : voucher.getLimitPerUser());
+        seckillVoucherService.save(seckillVoucher);
+        // Redis在事务提交后再写入：回滚时不能留下没有数据库记录的库存，否则秒杀成功的订单都会被丢弃
+        afterCommit(() -> publishSeckillVoucher(seckillVoucher));
+    }
 
-        stringRedisTemplate
-                .opsForValue()
-                .set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+    private void publishSeckillVoucher(@NotNull SeckillVoucher seckillVoucher) {
+        // 保存秒杀库存到Redis，分片时库存尽量平均地拆到各个分片
+        val voucherId = seckillVoucher.getVoucherId();
+        val shards = Math.max(1, seckillProperties.getStock().getShards());
+        val keys = seckillKeys.stockKeys(voucherId, shards);
+        val shares = SeckillKeys.split(seckillVoucher.getStock(), shards);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            val conn = (StringRedisConnection) connection;
+            for (int i = 0; i < keys.size(); i++) {
+                conn.set(keys.get(i), Integer.toString(shares[i]));
+            }
+            conn.set(SECKILL_SHARDS_KEY + voucherId, Integer.toString(shards));
+            // 集群模式下每个库存分片一个订单stream，登记后由消费者发现
+            if (seckillKeys.isCluster()) {
+                conn.sAdd(SECKILL_STREAMS_KEY, seckillKeys.orderStreamKeys(voucherId, shards).toArray(new String[0]));
+            }
+            return null;
+        });
+        // 秒杀时间和限购数量也写入Redis，由秒杀脚本校验
+        seckillVoucherService.publishToRedis(seckillVoucher, shards);
+    }
+
+    @Override
+    @Transactional
+    public @NotNull Result addSeckillStock(@NotNull Long voucherId, int count) {
+        if (count <= 0) {
+            return Result.fail("补充数量必须大于0");
+        }
+        val success = seckillVoucherService.update()
+                .setSql("stock = stock + " + count)
+                .eq("voucher_id", voucherId)
+                .update();
+        if (!success) {
+            return Result.fail("秒杀券不存在");
+        }
+        // Redis库存在事务提交后再补充：回滚时Redis中多出的库存在数据库中扣不到，消费者会丢弃这些订单
+        afterCommit(() -> addStockToRedis(voucherId, count));
+        return Result.ok();
+    }
+
+    /**
+     * 在当前事务提交后执行，没有事务时立即执行
+     */
+    private static void afterCommit(@NotNull Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private void addStockToRedis(@NotNull Long voucherId, int count) {
+        // 补充的库存和创建时一样平均拆到各个分片
+        val shardsValue = stringRedisTemplate.opsForValue().get(SECKILL_SHARDS_KEY + voucherId);
+        val shards = shardsValue == null ? 1 : Integer.parseInt(shardsValue);
+        val keys = seckillKeys.stockKeys(voucherId, shards);
+        val shares = SeckillKeys.split(count, shards);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            val conn = (StringRedisConnection) connection;
+            for (int i = 0; i < keys.size(); i++) {
+                if (shares[i] > 0) {
+                    conn.incrBy(keys.get(i), shares[i]);
+                }
+            }
+            return null;
+        });
+        soldOutFlags.clearSoldOut(voucherId);
+    }
+
+    @Override
+    public @NotNull Result queryStockShards(@NotNull Long voucherId) {
+        val shardsValue = stringRedisTemplate.opsForValue().get(SECKILL_SHARDS_KEY + voucherId);
+        val shards = shardsValue == null ? 1 : Integer.parseInt(shardsValue);
+        val values = stringRedisTemplate.opsForValue().multiGet(seckillKeys.stockKeys(voucherId, shards));
+        val result = new ArrayList<Map<String, Object>>(shards);
+        long total = 0;
+        for (int i = 0; i < shards; i++) {
+            val stock = values == null || values.get(i) == null ? 0 : Long.parseLong(values.get(i));
+            total += stock;
+            val map = new LinkedHashMap<String, Object>();
+            map.put("shard", i);
+            map.put("stock", stock);
+            result.add(map);
+        }
+        val map = new LinkedHashMap<String, Object>();
+        map.put("voucherId", voucherId);
+        map.put("total", total);
+        map.put("shards", result);
+        return Result.ok(map);
     }
 }
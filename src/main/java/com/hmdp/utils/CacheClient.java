@@ -1,36 +1,212 @@
 package com.hmdp.utils;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.thread.NamedThreadFactory;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import cn.hutool.core.util.ReflectUtil;
+import com.hmdp.config.CacheProperties;
 import lombok.AllArgsConstructor;
-import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.util.ByteUtils;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_LOCK_KEY;
 import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
-import static com.hmdp.utils.RedisConstants.LOCK_SHOP_KEY;
 
-@Slf4j
+/**
+ * 基于Redis的缓存客户端：穿透、互斥锁、逻辑过期三种查询方式及其批量、异步版本，hash结构的按字段读取。
+ * 编解码、本地缓存、过期策略和重建调度分别由 CacheValueCodec、LocalCache、CacheExpiry、CacheRebuildScheduler 负责
+ */
 @Component
 public class CacheClient {
 
     private final StringRedisTemplate stringRedisTemplate;
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    private final RedisScript<Long> hincrbyIfExistsScript;
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    private final CacheRebuildScheduler rebuildScheduler;
+
+    private final CacheMetrics metrics;
+
+    private final ReactiveRedisConnectionFactory reactiveConnectionFactory;
+
+    /**
+     * 缓存值的编解码
+     */
+    private final CacheValueCodec codec;
+
+    /**
+     * 一级缓存和热点key副本
+     */
+    private final LocalCache localCache;
+
+    /**
+     * 过期策略和提前刷新
+     */
+    private final CacheExpiry expiry;
+
+    /**
+     * 异步查询的解码、查库线程池，避免在Lettuce的IO线程上执行阻塞调用
+     */
+    private final ThreadPoolExecutor asyncExecutor;
+
+    /**
+     * key前缀 -> 布隆过滤器，未注册的前缀不做过滤
+     */
+    private final Map<String, RedisBloomFilter> bloomFilters = new ConcurrentHashMap<>();
+
+    /**
+     * 合并同一个key并发的缓存重建
+     */
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    /**
+     * hash结构的空值标记字段，数据不存在时只写入这一个字段
+     */
+    private static final String HASH_NULL_FIELD = "_null";
+
+    /**
+     * 失效消息中多个key的分隔符
+     */
+    private static final String INVALIDATE_SEPARATOR = "\n";
+
+    /**
+     * 投影类型 -> 需要读取的字段名
+     */
+    private final Map<Class<?>, List<String>> projectionFields = new ConcurrentHashMap<>();
+
+    public CacheClient(
+            StringRedisTemplate stringRedisTemplate,
+            @NotNull CacheProperties cacheProperties,
+            CacheValueCodec codec,
+            LocalCache localCache,
+            CacheExpiry expiry,
+            CacheRebuildScheduler rebuildScheduler,
+            CacheMetrics metrics,
+            ReactiveRedisConnectionFactory reactiveConnectionFactory,
+            RedisScripts redisScripts
+    ) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.hincrbyIfExistsScript = redisScripts.get("hincrby_if_exists", Long.class);
+        this.rebuildScheduler = rebuildScheduler;
+        this.metrics = metrics;
+        this.reactiveConnectionFactory = reactiveConnectionFactory;
+        this.codec = codec;
+        this.localCache = localCache;
+        this.expiry = expiry;
+        val async = cacheProperties.getAsync();
+        this.asyncExecutor = new ThreadPoolExecutor(
+                async.getThreads(),
+                async.getThreads(),
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(async.getQueueCapacity()),
+                new NamedThreadFactory("cache-async-", true)
+        );
+        metrics.gauge("cache.async.queue", asyncExecutor, executor -> executor.getQueue().size());
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        asyncExecutor.shutdown();
+    }
+
+    /**
+     * 为某个key前缀注册布隆过滤器，查库前先判断id是否可能存在
+     */
+    public void registerBloomFilter(@NotNull String keyPrefix, @NotNull RedisBloomFilter bloomFilter) {
+        bloomFilters.put(keyPrefix, bloomFilter);
+    }
+
+    /**
+     * 判断id是否可能存在，没有注册布隆过滤器时总是返回true
+     */
+    public boolean mightExist(@NotNull String keyPrefix, @NotNull Object id) {
+        val bloomFilter = bloomFilters.get(keyPrefix);
+        return bloomFilter == null || bloomFilter.mightContain(id);
+    }
+
+    /**
+     * 新增数据后调用，同步布隆过滤器
+     */
+    public void onInsert(@NotNull String keyPrefix, @NotNull Object id) {
+        val bloomFilter = bloomFilters.get(keyPrefix);
+        if (bloomFilter != null) {
+            bloomFilter.put(id);
+        }
+    }
+
+    /**
+     * 删除缓存，并通知所有节点清除一级缓存
+     */
+    public void delete(@NotNull String key) {
+        stringRedisTemplate.delete(key);
+        invalidateAllNodes(Collections.singletonList(key));
+    }
+
+    /**
+     * 批量删除缓存，一次DEL删除所有key，并用一条消息通知所有节点清除一级缓存
+     */
+    public void delete(@NotNull Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.delete(keys);
+        invalidateAllNodes(keys);
+    }
+
+    /**
+     * 清除本节点的一级缓存，并广播给其他节点；多个key合并为一条消息，以换行分隔
+     */
+    private void invalidateAllNodes(@NotNull Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        keys.forEach(this::evictLocal);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, String.join(INVALIDATE_SEPARATOR, keys));
+    }
+
+    /**
+     * 处理其他节点广播的失效消息，由监听器调用
+     */
+    public void onInvalidate(@NotNull String message) {
+        for (val key : message.split(INVALIDATE_SEPARATOR)) {
+            if (!key.isEmpty()) {
+                evictLocal(key);
+            }
+        }
+    }
+
+    /**
+     * 清除本节点的一级缓存
+     */
+    public void evictLocal(@NotNull String key) {
+        localCache.evict(key);
     }
 
     public void set(
@@ -39,7 +215,8 @@ public class CacheClient {
             @NotNull Long time,
             @NotNull TimeUnit unit
     ) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        setRaw(key, codec.encode(value), expiry.ttlSeconds(key, time, unit));
+        invalidateAllNodes(Collections.singletonList(key));
     }
 
     public void setWithLogicalExpire(
@@ -48,12 +225,51 @@ public class CacheClient {
             @NotNull Long time,
             @NotNull TimeUnit unit
     ) {
-        // 设置逻辑过期
-        val redisData = new RedisData();
-        redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
-        // 写入Redis
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        setWithLogicalExpire(key, value, time, unit, 0);
+    }
+
+    /**
+     * @param rebuildCost 本次查库耗时，单位毫秒，用于提前刷新的概率计算
+     */
+    public void setWithLogicalExpire(
+            @NotNull String key,
+            @NotNull Object value,
+            @NotNull Long time,
+            @NotNull TimeUnit unit,
+            long rebuildCost
+    ) {
+        // 设置逻辑过期并写入Redis，超过最长陈旧时间后由Redis回收
+        val ttl = expiry.ttlSeconds(key, time, unit);
+        setRaw(key, codec.encodeLogical(value, LocalDateTime.now().plusSeconds(ttl), rebuildCost), expiry.physicalTtl(key, ttl));
+        invalidateAllNodes(Collections.singletonList(key));
+    }
+
+    /**
+     * 用一次pipeline批量写入逻辑过期数据，用于缓存预热
+     *
+     * @param rebuildCost 本批数据的查库耗时，单位毫秒
+     */
+    public <R, ID> void setBatchWithLogicalExpire(
+            @NotNull String keyPrefix,
+            @NotNull Collection<R> values,
+            @NotNull Function<R, ID> idGetter,
+            @NotNull Long time,
+            @NotNull TimeUnit unit,
+            long rebuildCost
+    ) {
+        if (values.isEmpty()) {
+            return;
+        }
+        val now = LocalDateTime.now();
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (val r : values) {
+                val key = keyPrefix + idGetter.apply(r);
+                val ttl = expiry.ttlSeconds(key, time, unit);
+                setLogical(connection, key, codec.encodeLogical(r, now.plusSeconds(ttl), rebuildCost), expiry.physicalTtl(key, ttl));
+            }
+            return null;
+        });
+        invalidateAllNodes(values.stream().map(r -> keyPrefix + idGetter.apply(r)).collect(Collectors.toList()));
     }
 
     public <R, ID> @Nullable R queryWithPassThrough(
@@ -65,30 +281,88 @@ public class CacheClient {
             @NotNull TimeUnit unit
     ) {
         val key = keyPrefix + id;
+        // 0.先查一级缓存
+        val local = localCache.get(key, type);
+        if (local != null) {
+            metrics.request(keyPrefix, CacheMetrics.LOCAL_HIT);
+            return local;
+        }
         // 1.从redis查询商铺缓存
-        val json = stringRedisTemplate.opsForValue().get(key);
-        // 2.判断是否存在
-        if (StrUtil.isNotBlank(json)) {
-            // 3.存在，直接返回
-            return JSONUtil.toBean(json, type);
+        val bytes = metrics.timeRedisGet(keyPrefix, () -> getRaw(key));
+        return resolvePassThrough(keyPrefix, id, type, dbFallback, time, unit, bytes);
+    }
+
+    /**
+     * 异步版本的 queryWithPassThrough：Redis读取走Lettuce的异步连接，不占用调用线程；
+     * 解码以及未命中时的查库在独立的线程池中执行
+     */
+    public <R, ID> @NotNull CompletableFuture<R> queryWithPassThroughAsync(
+            @NotNull String keyPrefix,
+            @NotNull ID id,
+            @NotNull Class<R> type,
+            @NotNull Function<ID, R> dbFallback,
+            @NotNull Long time,
+            @NotNull TimeUnit unit
+    ) {
+        val key = keyPrefix + id;
+        val local = localCache.get(key, type);
+        if (local != null) {
+            metrics.request(keyPrefix, CacheMetrics.LOCAL_HIT);
+            return CompletableFuture.completedFuture(local);
+        }
+        return resolveAsync(getRawAsync(keyPrefix, key),
+                bytes -> resolvePassThrough(keyPrefix, id, type, dbFallback, time, unit, bytes));
+    }
+
+    /**
+     * 根据Redis中读到的值完成穿透查询的后续步骤，同步和异步版本共用
+     */
+    private <R, ID> @Nullable R resolvePassThrough(
+            @NotNull String keyPrefix,
+            @NotNull ID id,
+            @NotNull Class<R> type,
+            @NotNull Function<ID, R> dbFallback,
+            @NotNull Long time,
+            @NotNull TimeUnit unit,
+            byte @Nullable [] bytes
+    ) {
+        val key = keyPrefix + id;
+        if (bytes != null) {
+            // 2.判断命中的是否是空值
+            if (bytes.length == 0) {
+                metrics.request(keyPrefix, CacheMetrics.NULL_HIT);
+                // 返回一个错误信息
+                return null;
+            }
+            // 3.存在，直接返回；数据版本不兼容时按未命中处理
+            val r = codec.decode(bytes, type);
+            if (r != null) {
+                metrics.request(keyPrefix, CacheMetrics.HIT);
+                localCache.put(key, r);
+                return r;
+            }
         }
-        // 判断命中的是否是空值
-        if (json != null) {
-            // 返回一个错误信息
+        // 布隆过滤器判断一定不存在，既不查库也不写空值
+        if (!mightExist(keyPrefix, id)) {
+            metrics.request(keyPrefix, CacheMetrics.REJECTED);
             return null;
         }
+        metrics.request(keyPrefix, CacheMetrics.MISS);
 
-        // 4.不存在，根据id查询数据库
-        R r = dbFallback.apply(id);
-        // 5.不存在，返回错误
-        if (r == null) {
-            // 将空值写入redis
-            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-        } else {
-            // 6.存在，写入redis
-            this.set(key, r, time, unit);
-        }
-        return r;
+        // 4.不存在，根据id查询数据库，本节点并发的未命中合并为一次查询
+        return singleFlight.execute(key, () -> {
+            R r = metrics.timeDbFallback(keyPrefix, () -> dbFallback.apply(id));
+            // 5.不存在，返回错误
+            if (r == null) {
+                // 将空值写入redis
+                setNull(key);
+            } else {
+                // 6.存在，写入redis
+                this.set(key, r, time, unit);
+                localCache.put(key, r);
+            }
+            return r;
+        });
     }
 
     public <R, ID> @Nullable R queryWithLogicalExpire(
@@ -100,80 +374,591 @@ public class CacheClient {
             @NotNull TimeUnit unit
     ) {
         val key = keyPrefix + id;
+        // 0.先查一级缓存，命中则跳过网络和反序列化
+        val local = localCache.get(key, type);
+        if (local != null) {
+            metrics.request(keyPrefix, CacheMetrics.LOCAL_HIT);
+            return local;
+        }
         // 1.从redis查询商铺缓存
-        val json = stringRedisTemplate.opsForValue().get(key);
-        // 2.判断是否存在
-        if (StrUtil.isBlank(json)) {
-            // 3.存在，直接返回
+        val bytes = metrics.timeRedisGet(keyPrefix, () -> getRaw(key));
+        return resolveLogicalExpire(keyPrefix, id, type, dbFallback, time, unit, bytes);
+    }
+
+    /**
+     * 异步版本的 queryWithLogicalExpire，线程模型同 queryWithPassThroughAsync
+     */
+    public <R, ID> @NotNull CompletableFuture<R> queryWithLogicalExpireAsync(
+            @NotNull String keyPrefix,
+            @NotNull ID id,
+            @NotNull Class<R> type,
+            @NotNull Function<ID, R> dbFallback,
+            @NotNull Long time,
+            @NotNull TimeUnit unit
+    ) {
+        val key = keyPrefix + id;
+        val local = localCache.get(key, type);
+        if (local != null) {
+            metrics.request(keyPrefix, CacheMetrics.LOCAL_HIT);
+            return CompletableFuture.completedFuture(local);
+        }
+        return resolveAsync(getRawAsync(keyPrefix, key),
+                bytes -> resolveLogicalExpire(keyPrefix, id, type, dbFallback, time, unit, bytes));
+    }
+
+    /**
+     * 根据Redis中读到的值完成逻辑过期查询的后续步骤，同步和异步版本共用
+     */
+    private <R, ID> @Nullable R resolveLogicalExpire(
+            @NotNull String keyPrefix,
+            @NotNull ID id,
+            @NotNull Class<R> type,
+            @NotNull Function<ID, R> dbFallback,
+            @NotNull Long time,
+            @NotNull TimeUnit unit,
+            byte @Nullable [] bytes
+    ) {
+        val key = keyPrefix + id;
+        // 2.判断是否命中空值
+        if (bytes != null && bytes.length == 0) {
+            // 3.数据不存在，直接返回
+            metrics.request(keyPrefix, CacheMetrics.NULL_HIT);
             return null;
         }
-        // 4.命中，需要先把json反序列化为对象
-        val redisData = JSONUtil.toBean(json, RedisData.class);
-        val r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+        // 4.命中，二进制格式一次解码；旧的JSON格式仍需解析两次
+        val redisData = bytes == null ? null : codec.decodeLogical(bytes, type);
+        val now = LocalDateTime.now();
+        if (redisData == null || expiry.isTooStale(key, redisData.getExpireTime(), now)) {
+            // 未命中、数据版本不兼容或已超过最长陈旧时间，同步重建
+            if (!mightExist(keyPrefix, id)) {
+                metrics.request(keyPrefix, CacheMetrics.REJECTED);
+                return null;
+            }
+            metrics.request(keyPrefix, CacheMetrics.MISS);
+            return singleFlight.execute(key, () -> {
+                val start = System.currentTimeMillis();
+                R r = metrics.timeDbFallback(keyPrefix, () -> dbFallback.apply(id));
+                if (r == null) {
+                    setNull(key);
+                } else {
+                    setWithLogicalExpire(key, r, time, unit, System.currentTimeMillis() - start);
+                }
+                return r;
+            });
+        }
+        val r = type.cast(redisData.getData());
         val expireTime = redisData.getExpireTime();
         // 5.判断是否过期
-        if (expireTime.isAfter(LocalDateTime.now())) {
-            // 5.1.未过期，直接返回店铺信息
+        if (expireTime.isAfter(now)) {
+            // 5.1.未过期，放入一级缓存并直接返回店铺信息
+            metrics.request(keyPrefix, CacheMetrics.HIT);
+            localCache.put(key, r);
+            // 越接近过期、重建越慢，越有可能提前在后台刷新
+            if (expiry.shouldRefreshEarly(redisData, now)) {
+                rebuildAsync(keyPrefix, id, dbFallback, time, unit);
+            }
             return r;
         }
         // 5.2.已过期，需要缓存重建
+        metrics.request(keyPrefix, CacheMetrics.STALE);
         // 6.缓存重建
+        rebuildAsync(keyPrefix, id, dbFallback, time, unit);
+        // 6.4.返回过期的商铺信息
+        return r;
+    }
+
+    private <R, ID> void rebuildAsync(
+            @NotNull String keyPrefix,
+            @NotNull ID id,
+            @NotNull Function<ID, R> dbFallback,
+            @NotNull Long time,
+            @NotNull TimeUnit unit
+    ) {
+        val key = keyPrefix + id;
+        // 本节点已在重建，不必再去竞争分布式锁
+        if (rebuildScheduler.isPending(key)) {
+            return;
+        }
         // 6.1.获取互斥锁
-        val lockKey = LOCK_SHOP_KEY + id;
-        val lock = new RedisLock(lockKey);
+        val lock = new RedisLock(lockKey(key));
         // 6.2.判断是否获取锁成功
-        if (lock.tryLock()) {
-            // 6.3.成功，开启独立线程，实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    // 查询数据库
-                    R newR = dbFallback.apply(id);
-                    // 重建缓存
-                    setWithLogicalExpire(key, newR, time, unit);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    // 释放锁
-                    lock.unlock();
+        if (!lock.tryLock()) {
+            metrics.lockContention(keyPrefix);
+            return;
+        }
+        // 6.3.成功，提交到重建调度器；被拒绝时立即释放锁，调用方继续返回旧数据
+        val accepted = rebuildScheduler.submit(keyPrefix, key, () -> metrics.timeRebuild(keyPrefix, () -> {
+            try {
+                // 查询数据库，并记录耗时
+                val start = System.currentTimeMillis();
+                R newR = metrics.timeDbFallback(keyPrefix, () -> dbFallback.apply(id));
+                // 重建缓存，数据已被删除时写入空值
+                if (newR == null) {
+                    setNull(key);
+                } else {
+                    setWithLogicalExpire(key, newR, time, unit, System.currentTimeMillis() - start);
+                }
+            } finally {
+                // 释放锁
+                lock.unlock();
+            }
+        }));
+        if (!accepted) {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 批量查询，缓存穿透版本。一次MGET读取所有key，未命中的id一次性查库，再用pipeline批量回写
+     *
+     * @param dbFallback 根据一批id查询数据库，例如 listByIds
+     * @param idGetter   从查询结果中取出id，用于和缓存key对应
+     * @return 按传入顺序排列的 id -> 数据，不存在的id不会出现在结果中
+     */
+    public <R, ID> @NotNull Map<ID, R> queryBatchWithPassThrough(
+            @NotNull String keyPrefix,
+            @NotNull Collection<ID> ids,
+            @NotNull Class<R> type,
+            @NotNull Function<Collection<ID>, ? extends Collection<R>> dbFallback,
+            @NotNull Function<R, ID> idGetter,
+            @NotNull Long time,
+            @NotNull TimeUnit unit
+    ) {
+        val result = new LinkedHashMap<ID, R>();
+        val remoteIds = new ArrayList<ID>();
+        // 1.先查一级缓存
+        for (val id : new LinkedHashSet<>(ids)) {
+            val local = localCache.get(keyPrefix + id, type);
+            result.put(id, local);
+            if (local == null) {
+                remoteIds.add(id);
+            }
+        }
+        metrics.request(keyPrefix, CacheMetrics.LOCAL_HIT, result.size() - remoteIds.size());
+        // 2.一次MGET查询redis
+        val missIds = new ArrayList<ID>();
+        val values = metrics.timeRedisGet(keyPrefix, () -> multiGetRaw(keyPrefix, remoteIds));
+        int nullHits = 0;
+        for (int i = 0; i < remoteIds.size(); i++) {
+            val id = remoteIds.get(i);
+            val bytes = values.get(i);
+            if (bytes != null && bytes.length == 0) {
+                // 2.1.命中空值，直接忽略
+                nullHits++;
+                continue;
+            }
+            val r = bytes == null ? null : codec.decode(bytes, type);
+            if (r != null) {
+                // 2.2.命中
+                localCache.put(keyPrefix + id, r);
+                result.put(id, r);
+            } else {
+                // 2.3.未命中或数据版本不兼容，需要查库
+                missIds.add(id);
+            }
+        }
+        metrics.request(keyPrefix, CacheMetrics.NULL_HIT, nullHits);
+        metrics.request(keyPrefix, CacheMetrics.HIT, remoteIds.size() - missIds.size() - nullHits);
+        // 3.未命中的id一次性查询数据库，并用pipeline回写
+        val missCount = missIds.size();
+        missIds.removeIf(id -> !mightExist(keyPrefix, id));
+        metrics.request(keyPrefix, CacheMetrics.REJECTED, missCount - missIds.size());
+        metrics.request(keyPrefix, CacheMetrics.MISS, missIds.size());
+        if (!missIds.isEmpty()) {
+            val loaded = metrics.timeDbFallback(keyPrefix, () -> loadBatch(missIds, dbFallback, idGetter));
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (val id : missIds) {
+                    val r = loaded.get(id);
+                    val key = rawKey(keyPrefix + id);
+                    if (r == null) {
+                        connection.setEx(key, TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL), new byte[0]);
+                    } else {
+                        connection.setEx(key, expiry.ttlSeconds(keyPrefix + id, time, unit), codec.encode(r));
+                    }
                 }
+                return null;
             });
+            for (val id : missIds) {
+                val r = loaded.get(id);
+                localCache.put(keyPrefix + id, r);
+                result.put(id, r);
+            }
         }
-        // 6.4.返回过期的商铺信息
-        return r;
+        result.values().removeIf(Objects::isNull);
+        return result;
+    }
+
+    /**
+     * 批量查询，逻辑过期版本。已过期的数据照常返回并异步重建，未命中的id一次性查库后批量写入
+     *
+     * @param dbFallback 根据一批id查询数据库，例如 listByIds
+     * @param idGetter   从查询结果中取出id，用于和缓存key对应
+     * @return 按传入顺序排列的 id -> 数据，不存在的id不会出现在结果中
+     */
+    public <R, ID> @NotNull Map<ID, R> queryBatchWithLogicalExpire(
+            @NotNull String keyPrefix,
+            @NotNull Collection<ID> ids,
+            @NotNull Class<R> type,
+            @NotNull Function<Collection<ID>, ? extends Collection<R>> dbFallback,
+            @NotNull Function<R, ID> idGetter,
+            @NotNull Long time,
+            @NotNull TimeUnit unit
+    ) {
+        val result = new LinkedHashMap<ID, R>();
+        val remoteIds = new ArrayList<ID>();
+        // 1.先查一级缓存
+        for (val id : new LinkedHashSet<>(ids)) {
+            val local = localCache.get(keyPrefix + id, type);
+            result.put(id, local);
+            if (local == null) {
+                remoteIds.add(id);
+            }
+        }
+        metrics.request(keyPrefix, CacheMetrics.LOCAL_HIT, result.size() - remoteIds.size());
+        // 2.一次MGET查询redis
+        val missIds = new ArrayList<ID>();
+        val values = metrics.timeRedisGet(keyPrefix, () -> multiGetRaw(keyPrefix, remoteIds));
+        int nullHits = 0;
+        int staleHits = 0;
+        val now = LocalDateTime.now();
+        for (int i = 0; i < remoteIds.size(); i++) {
+            val id = remoteIds.get(i);
+            val bytes = values.get(i);
+            if (bytes != null && bytes.length == 0) {
+                // 命中空值，数据不存在
+                nullHits++;
+                continue;
+            }
+            val redisData = bytes == null ? null : codec.decodeLogical(bytes, type);
+            if (redisData == null || expiry.isTooStale(keyPrefix + id, redisData.getExpireTime(), now)) {
+                // 未命中、数据版本不兼容或已超过最长陈旧时间，需要查库
+                missIds.add(id);
+                continue;
+            }
+            val r = type.cast(redisData.getData());
+            result.put(id, r);
+            val fresh = redisData.getExpireTime().isAfter(now);
+            if (fresh) {
+                localCache.put(keyPrefix + id, r);
+            }
+            if (!fresh) {
+                staleHits++;
+            }
+            if (!fresh || expiry.shouldRefreshEarly(redisData, now)) {
+                // 已过期或需要提前刷新，返回当前数据并异步重建
+                rebuildAsync(keyPrefix, id, oneId -> firstOrNull(dbFallback.apply(Collections.singletonList(oneId))), time, unit);
+            }
+        }
+        metrics.request(keyPrefix, CacheMetrics.NULL_HIT, nullHits);
+        metrics.request(keyPrefix, CacheMetrics.STALE, staleHits);
+        metrics.request(keyPrefix, CacheMetrics.HIT, remoteIds.size() - missIds.size() - nullHits - staleHits);
+        // 3.未命中的id一次性查询数据库，并用pipeline回写
+        val missCount = missIds.size();
+        missIds.removeIf(id -> !mightExist(keyPrefix, id));
+        metrics.request(keyPrefix, CacheMetrics.REJECTED, missCount - missIds.size());
+        metrics.request(keyPrefix, CacheMetrics.MISS, missIds.size());
+        if (!missIds.isEmpty()) {
+            val start = System.currentTimeMillis();
+            val loaded = metrics.timeDbFallback(keyPrefix, () -> loadBatch(missIds, dbFallback, idGetter));
+            // 批量查询的耗时作为每条数据重建耗时的上界
+            val rebuildCost = System.currentTimeMillis() - start;
+            val writeTime = LocalDateTime.now();
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (val id : missIds) {
+                    val r = loaded.get(id);
+                    val key = keyPrefix + id;
+                    if (r == null) {
+                        connection.setEx(rawKey(key), TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL), new byte[0]);
+                    } else {
+                        val ttl = expiry.ttlSeconds(key, time, unit);
+                        setLogical(connection, key, codec.encodeLogical(r, writeTime.plusSeconds(ttl), rebuildCost), expiry.physicalTtl(key, ttl));
+                    }
+                }
+                return null;
+            });
+            for (val id : missIds) {
+                val r = loaded.get(id);
+                localCache.put(keyPrefix + id, r);
+                result.put(id, r);
+            }
+        }
+        result.values().removeIf(Objects::isNull);
+        return result;
+    }
+
+    /**
+     * 以hash结构写入缓存，每个非空属性一个field，便于按字段读取和局部更新
+     */
+    public void setHash(
+            @NotNull String key,
+            @NotNull Object value,
+            @NotNull Long time,
+            @NotNull TimeUnit unit
+    ) {
+        val fields = new HashMap<String, String>();
+        BeanUtil.beanToMap(value, false, true).forEach((field, v) -> fields.put(field, v.toString()));
+        writeHash(key, fields, expiry.ttlSeconds(key, time, unit));
+    }
+
+    private void writeHash(@NotNull String key, @NotNull Map<String, String> fields, long ttlSeconds) {
+        // 先删除再写入，避免残留已被置空的旧字段
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            val conn = (StringRedisConnection) connection;
+            conn.del(key);
+            conn.hMSet(key, fields);
+            conn.expire(key, ttlSeconds);
+            return null;
+        });
+    }
+
+    /**
+     * 从hash结构的缓存中只读取投影类型需要的字段，未命中时查库并以hash结构写入完整数据
+     *
+     * @param projection 投影类型，按属性名读取同名字段
+     * @return 投影对象，数据不存在时返回null
+     */
+    public <P, R, ID> @Nullable P queryHashFields(
+            @NotNull String keyPrefix,
+            @NotNull ID id,
+            @NotNull Class<P> projection,
+            @NotNull Function<ID, R> dbFallback,
+            @NotNull Long time,
+            @NotNull TimeUnit unit
+    ) {
+        val key = keyPrefix + id;
+        // 1.HMGET读取需要的字段，同时读取空值标记
+        val fields = projectionFields.computeIfAbsent(projection, type -> Arrays.stream(ReflectUtil.getFields(type))
+                .filter(field -> !Modifier.isStatic(field.getModifiers()))
+                .map(Field::getName)
+                .collect(Collectors.toList()));
+        val hashFields = new ArrayList<Object>(fields);
+        hashFields.add(HASH_NULL_FIELD);
+        val values = metrics.timeRedisGet(keyPrefix, () -> stringRedisTemplate.opsForHash().multiGet(key, hashFields));
+        // 2.命中空值
+        if (values.get(fields.size()) != null) {
+            metrics.request(keyPrefix, CacheMetrics.NULL_HIT);
+            return null;
+        }
+        // 3.命中，按字段填充投影对象
+        val map = new HashMap<String, Object>();
+        for (int i = 0; i < fields.size(); i++) {
+            if (values.get(i) != null) {
+                map.put(fields.get(i), values.get(i));
+            }
+        }
+        if (!map.isEmpty()) {
+            metrics.request(keyPrefix, CacheMetrics.HIT);
+            return BeanUtil.fillBeanWithMap(map, ReflectUtil.newInstance(projection), false);
+        }
+        // 4.未命中，布隆过滤器判断一定不存在时直接返回
+        if (!mightExist(keyPrefix, id)) {
+            metrics.request(keyPrefix, CacheMetrics.REJECTED);
+            return null;
+        }
+        metrics.request(keyPrefix, CacheMetrics.MISS);
+        // 5.查库并写入完整数据
+        R r = singleFlight.execute(key, () -> {
+            R loaded = metrics.timeDbFallback(keyPrefix, () -> dbFallback.apply(id));
+            if (loaded == null) {
+                writeHash(key, Collections.singletonMap(HASH_NULL_FIELD, "1"), TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL));
+            } else {
+                setHash(key, loaded, time, unit);
+            }
+            return loaded;
+        });
+        return r == null ? null : BeanUtil.copyProperties(r, projection);
+    }
+
+    /**
+     * 缓存存在时原子地累加hash中的一个字段，缓存不存在时什么也不做，下次读取时会从数据库加载
+     *
+     * @return 累加后的值，缓存不存在时返回null
+     */
+    public @Nullable Long incrementHashField(@NotNull String key, @NotNull String field, long delta) {
+        return stringRedisTemplate.execute(
+                hincrbyIfExistsScript,
+                Collections.singletonList(key),
+                field,
+                Long.toString(delta)
+        );
+    }
+
+    /**
+     * 重建缓存的互斥锁，按完整的缓存key区分，不同前缀的同一个id互不影响
+     */
+    private static @NotNull String lockKey(@NotNull String key) {
+        return CACHE_LOCK_KEY + key;
+    }
+
+    private static byte @NotNull [] rawKey(@NotNull String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private byte @Nullable [] getRaw(@NotNull String key) {
+        return stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(rawKey(key)));
+    }
+
+    /**
+     * 通过Lettuce的响应式连接读取，结果在Lettuce的IO线程上完成，后续处理不能在该线程上执行阻塞调用
+     */
+    private @NotNull CompletableFuture<byte[]> getRawAsync(@NotNull String keyPrefix, @NotNull String key) {
+        val start = System.nanoTime();
+        val connection = reactiveConnectionFactory.getReactiveConnection();
+        return connection.stringCommands()
+                .get(ByteBuffer.wrap(rawKey(key)))
+                .map(ByteUtils::getBytes)
+                .doFinally(signal -> {
+                    connection.close();
+                    metrics.recordRedisGet(keyPrefix, System.nanoTime() - start);
+                })
+                .toFuture();
+    }
+
+    /**
+     * 在异步线程池中处理Redis读到的值。回调可能在Lettuce的IO线程上触发，线程池已满时
+     * 不能把拒绝异常抛给IO线程，否则返回的future永远不会完成，调用方只能等到超时；这里直接以异常结束
+     */
+    private <R> @NotNull CompletableFuture<R> resolveAsync(
+            @NotNull CompletableFuture<byte[]> raw,
+            @NotNull Function<byte[], R> resolver
+    ) {
+        val result = new CompletableFuture<R>();
+        raw.whenComplete((bytes, e) -> {
+            if (e != null) {
+                result.completeExceptionally(e);
+                return;
+            }
+            try {
+                asyncExecutor.execute(() -> {
+                    try {
+                        result.complete(resolver.apply(bytes));
+                    } catch (Throwable ex) {
+                        result.completeExceptionally(ex);
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                result.completeExceptionally(ex);
+            }
+        });
+        return result;
+    }
+
+    private <ID> @NotNull List<byte[]> multiGetRaw(@NotNull String keyPrefix, @NotNull List<ID> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        val keys = ids.stream().map(id -> rawKey(keyPrefix + id)).toArray(byte[][]::new);
+        val values = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.mGet(keys));
+        return values == null ? Collections.nCopies(ids.size(), null) : values;
+    }
+
+    /**
+     * 写入Redis，ttlSeconds不大于0时不设置过期时间
+     */
+    private void setRaw(@NotNull String key, byte @NotNull [] value, long ttlSeconds) {
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> ttlSeconds > 0
+                ? connection.setEx(rawKey(key), ttlSeconds, value)
+                : connection.set(rawKey(key), value));
+    }
+
+    private static void setLogical(
+            @NotNull RedisConnection connection, @NotNull String key, byte @NotNull [] value, long physicalTtl) {
+        if (physicalTtl > 0) {
+            connection.setEx(rawKey(key), physicalTtl, value);
+        } else {
+            connection.set(rawKey(key), value);
+        }
+    }
+
+    private void setNull(@NotNull String key) {
+        setRaw(key, new byte[0], TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL));
+    }
+
+    private <R, ID> @NotNull Map<ID, R> loadBatch(
+            @NotNull Collection<ID> ids,
+            @NotNull Function<Collection<ID>, ? extends Collection<R>> dbFallback,
+            @NotNull Function<R, ID> idGetter
+    ) {
+        val loaded = new HashMap<ID, R>();
+        val list = dbFallback.apply(ids);
+        if (list != null) {
+            for (val r : list) {
+                loaded.put(idGetter.apply(r), r);
+            }
+        }
+        return loaded;
+    }
+
+    private static <R> @Nullable R firstOrNull(@Nullable Collection<R> list) {
+        return list == null || list.isEmpty() ? null : list.iterator().next();
     }
 
     public <R, ID> @Nullable R queryWithMutex(
             String keyPrefix, ID id, Class<R> type, @NotNull Function<ID, R> dbFallback, Long time, @NotNull TimeUnit unit) {
         String key = keyPrefix + id;
+        // 0.先查一级缓存
+        R local = localCache.get(key, type);
+        if (local != null) {
+            metrics.request(keyPrefix, CacheMetrics.LOCAL_HIT);
+            return local;
+        }
         // 1.从redis查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-        // 2.判断是否存在
-        if (StrUtil.isNotBlank(shopJson)) {
+        byte[] bytes = metrics.timeRedisGet(keyPrefix, () -> getRaw(key));
+        if (bytes != null) {
+            // 2.判断命中的是否是空值
+            if (bytes.length == 0) {
+                metrics.request(keyPrefix, CacheMetrics.NULL_HIT);
+                // 返回一个错误信息
+                return null;
+            }
             // 3.存在，直接返回
-            return JSONUtil.toBean(shopJson, type);
+            R r = codec.decode(bytes, type);
+            if (r != null) {
+                metrics.request(keyPrefix, CacheMetrics.HIT);
+                localCache.put(key, r);
+                return r;
+            }
         }
-        // 判断命中的是否是空值
-        if (shopJson != null) {
-            // 返回一个错误信息
+        // 布隆过滤器判断一定不存在，直接返回
+        if (!mightExist(keyPrefix, id)) {
+            metrics.request(keyPrefix, CacheMetrics.REJECTED);
             return null;
         }
+        metrics.request(keyPrefix, CacheMetrics.MISS);
 
-        // 4.实现缓存重建
-        // 4.1.获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        try(RedisLock lock = new RedisLock(lockKey).also(RedisLock::lock)) {
-            R r = dbFallback.apply(id);
-            // 5.不存在，返回错误
-            if (r == null) {
-                // 将空值写入redis
-                stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                // 返回错误信息
-                return null;
+        // 4.实现缓存重建，本节点同一个key只有leader线程去竞争分布式锁，其余线程等待leader的结果
+        return singleFlight.execute(key, () -> {
+            // 4.1.获取互斥锁
+            RedisLock redisLock = new RedisLock(lockKey(key));
+            if (!redisLock.tryLock()) {
+                metrics.lockContention(keyPrefix);
+                redisLock.lock();
             }
-            // 6.存在，写入redis
-            this.set(key, r, time, unit);
-            return r;
-        }
+            try (RedisLock lock = redisLock) {
+                // 4.2.再次检查缓存，其他节点可能已经完成重建
+                byte[] cached = getRaw(key);
+                if (cached != null && cached.length == 0) {
+                    return null;
+                }
+                R cachedR = cached == null ? null : codec.decode(cached, type);
+                if (cachedR != null) {
+                    localCache.put(key, cachedR);
+                    return cachedR;
+                }
+                R r = metrics.timeDbFallback(keyPrefix, () -> dbFallback.apply(id));
+                // 5.不存在，返回错误
+                if (r == null) {
+                    // 将空值写入redis
+                    setNull(key);
+                    // 返回错误信息
+                    return null;
+                }
+                // 6.存在，写入redis
+                this.set(key, r, time, unit);
+                localCache.put(key, r);
+                return r;
+            }
+        });
     }
 
     @AllArgsConstructor
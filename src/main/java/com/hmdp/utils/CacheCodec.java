@@ -0,0 +1,35 @@
+package com.hmdp.utils;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * 缓存值的二进制编解码器。实现类注册为Spring Bean后，CacheClient会对对应类型使用二进制格式存储，
+ * 未注册的类型以及旧的JSON数据仍按JSON读写
+ *
+ * @param <T> 缓存值类型
+ */
+public interface CacheCodec<T> {
+
+    /**
+     * 编解码的目标类型
+     */
+    @NotNull Class<T> type();
+
+    /**
+     * 编码格式名称，用于统计
+     */
+    @NotNull String name();
+
+    /**
+     * 数据结构版本，结构变化时递增，版本不一致的缓存按未命中处理
+     */
+    byte version();
+
+    void encode(@NotNull T value, @NotNull DataOutput out) throws IOException;
+
+    @NotNull T decode(@NotNull DataInput in) throws IOException;
+}
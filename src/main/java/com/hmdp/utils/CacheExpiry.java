@@ -0,0 +1,104 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheProperties;
+import lombok.val;
+import lombok.var;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存的过期策略：按key前缀匹配的ttl、抖动和最长陈旧时间，以及逻辑过期数据的提前刷新（XFetch）
+ */
+@Component
+public class CacheExpiry {
+
+    private final CacheMetrics metrics;
+
+    /**
+     * 按key前缀配置的过期策略
+     */
+    private final CacheProperties.Expiry expiry;
+
+    /**
+     * 提前刷新（XFetch）配置
+     */
+    private final CacheProperties.EarlyRefresh earlyRefresh;
+
+    public CacheExpiry(@NotNull CacheProperties cacheProperties, @NotNull CacheMetrics metrics) {
+        this.metrics = metrics;
+        this.expiry = cacheProperties.getExpiry();
+        this.earlyRefresh = cacheProperties.getEarlyRefresh();
+    }
+
+    /**
+     * 按key前缀匹配过期策略，多个前缀匹配时取最长的；没有配置时只做默认的抖动
+     */
+    private @NotNull CacheProperties.ExpiryPolicy policyOf(@NotNull String key) {
+        CacheProperties.ExpiryPolicy matched = null;
+        int matchedLength = -1;
+        for (val entry : expiry.getPolicies().entrySet()) {
+            if (key.startsWith(entry.getKey()) && entry.getKey().length() > matchedLength) {
+                matched = entry.getValue();
+                matchedLength = entry.getKey().length();
+            }
+        }
+        return matched != null ? matched : expiry.getDefaultPolicy();
+    }
+
+    /**
+     * 计算实际的过期秒数：策略配置了ttl时以策略为准，再叠加 ±jitterPercent 的随机抖动，
+     * 避免同一批写入的key同时过期
+     */
+    public long ttlSeconds(@NotNull String key, @NotNull Long time, @NotNull TimeUnit unit) {
+        val policy = policyOf(key);
+        val base = policy.getTtl() != null ? policy.getTtl().getSeconds() : unit.toSeconds(time);
+        var ttl = base;
+        if (policy.getJitterPercent() > 0 && base > 0) {
+            val range = base * policy.getJitterPercent() / 100;
+            ttl = Math.max(1, base + ThreadLocalRandom.current().nextLong(-range, range + 1));
+        }
+        metrics.expiry(prefixOf(key), ttl);
+        return ttl;
+    }
+
+    /**
+     * 逻辑过期数据的物理过期秒数，没有配置最长陈旧时间时永不过期
+     */
+    public long physicalTtl(@NotNull String key, long logicalTtlSeconds) {
+        val maxStale = policyOf(key).getMaxStale();
+        return maxStale == null ? 0 : logicalTtlSeconds + maxStale.getSeconds();
+    }
+
+    /**
+     * 已过期超过最长陈旧时间的数据不能再返回，需要同步加载
+     */
+    public boolean isTooStale(@NotNull String key, @NotNull LocalDateTime expireTime, @NotNull LocalDateTime now) {
+        val maxStale = policyOf(key).getMaxStale();
+        return maxStale != null && expireTime.plus(maxStale).isBefore(now);
+    }
+
+    private static @NotNull String prefixOf(@NotNull String key) {
+        return key.substring(0, key.lastIndexOf(':') + 1);
+    }
+
+    /**
+     * XFetch：当 now - cost * beta * ln(rand) >= expireTime 时提前刷新，
+     * rand取(0,1]，离过期越近、重建耗时越长，触发概率越高，从而把同一批数据的重建分散开
+     */
+    public boolean shouldRefreshEarly(@NotNull RedisData redisData, @NotNull LocalDateTime now) {
+        if (!earlyRefresh.isEnabled()) {
+            return false;
+        }
+        val cost = redisData.getRebuildCost() == null || redisData.getRebuildCost() <= 0
+                ? earlyRefresh.getDefaultRebuildCost().toMillis()
+                : redisData.getRebuildCost();
+        val rand = 1 - ThreadLocalRandom.current().nextDouble();
+        val gap = (long) (-cost * earlyRefresh.getBeta() * Math.log(rand));
+        return !now.plus(gap, ChronoUnit.MILLIS).isBefore(redisData.getExpireTime());
+    }
+}
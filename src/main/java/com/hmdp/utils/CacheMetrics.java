@@ -0,0 +1,119 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * 按key前缀统计的缓存指标，通过 /actuator/prometheus 暴露
+ * <ul>
+ *     <li>cache.requests：按 result 区分 local_hit、hit、null_hit、stale、miss、rejected（布隆过滤器拦截）</li>
+ *     <li>cache.lock.contention：获取重建锁失败的次数</li>
+ *     <li>cache.redis.get、cache.db.fallback、cache.rebuild：耗时直方图</li>
+ *     <li>cache.expiry.ttl：加上抖动后实际写入的过期秒数</li>
+ * </ul>
+ */
+@Component
+public class CacheMetrics {
+
+    public static final String LOCAL_HIT = "local_hit";
+    public static final String HIT = "hit";
+    public static final String NULL_HIT = "null_hit";
+    public static final String STALE = "stale";
+    public static final String MISS = "miss";
+    public static final String REJECTED = "rejected";
+
+    private final MeterRegistry registry;
+
+    /**
+     * 避免每次请求都去注册表里查找，key为 指标名+前缀+结果
+     */
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, DistributionSummary> summaries = new ConcurrentHashMap<>();
+
+    public CacheMetrics(@NotNull MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    public <T> void gauge(@NotNull String name, @NotNull T obj, @NotNull ToDoubleFunction<T> valueFunction) {
+        Gauge.builder(name, obj, valueFunction).register(registry);
+    }
+
+    /**
+     * 记录一次缓存查询结果，批量查询按id逐个计数
+     */
+    public void request(@NotNull String keyPrefix, @NotNull String result) {
+        request(keyPrefix, result, 1);
+    }
+
+    public void request(@NotNull String keyPrefix, @NotNull String result, long count) {
+        if (count <= 0) {
+            return;
+        }
+        counters.computeIfAbsent("cache.requests|" + keyPrefix + "|" + result, k -> Counter
+                .builder("cache.requests")
+                .description("缓存查询次数")
+                .tag("prefix", keyPrefix)
+                .tag("result", result)
+                .register(registry)
+        ).increment(count);
+    }
+
+    public void lockContention(@NotNull String keyPrefix) {
+        counters.computeIfAbsent("cache.lock.contention|" + keyPrefix, k -> Counter
+                .builder("cache.lock.contention")
+                .description("获取缓存重建锁失败的次数")
+                .tag("prefix", keyPrefix)
+                .register(registry)
+        ).increment();
+    }
+
+    /**
+     * 记录实际写入的过期秒数，用直方图观察抖动后的过期时间分布
+     */
+    public void expiry(@NotNull String keyPrefix, long ttlSeconds) {
+        summaries.computeIfAbsent(keyPrefix, k -> DistributionSummary
+                .builder("cache.expiry.ttl")
+                .description("写入缓存时的过期秒数")
+                .baseUnit("seconds")
+                .tag("prefix", keyPrefix)
+                .publishPercentileHistogram()
+                .register(registry)
+        ).record(ttlSeconds);
+    }
+
+    public <T> T timeRedisGet(@NotNull String keyPrefix, @NotNull Supplier<T> supplier) {
+        return timer("cache.redis.get", keyPrefix).record(supplier);
+    }
+
+    public void recordRedisGet(@NotNull String keyPrefix, long nanos) {
+        timer("cache.redis.get", keyPrefix).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public <T> T timeDbFallback(@NotNull String keyPrefix, @NotNull Supplier<T> supplier) {
+        return timer("cache.db.fallback", keyPrefix).record(supplier);
+    }
+
+    public void timeRebuild(@NotNull String keyPrefix, @NotNull Runnable runnable) {
+        timer("cache.rebuild", keyPrefix).record(runnable);
+    }
+
+    private @NotNull Timer timer(@NotNull String name, @NotNull String keyPrefix) {
+        return timers.computeIfAbsent(name + "|" + keyPrefix, k -> Timer
+                .builder(name)
+                .tag("prefix", keyPrefix)
+                .publishPercentileHistogram()
+                .register(registry));
+    }
+}
@@ -0,0 +1,138 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.hmdp.config.CacheProperties;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存重建调度器：有界队列、同一个key去重、按key前缀限制并发。
+ * 提交失败时由调用方继续返回旧数据，不会阻塞请求线程
+ */
+@Slf4j
+@Component
+public class CacheRebuildScheduler {
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * 已提交且尚未完成的key
+     */
+    private final Set<String> pendingKeys = ConcurrentHashMap.newKeySet();
+
+    /**
+     * key前缀 -> 并发许可
+     */
+    private final Map<String, Semaphore> prefixPermits = new ConcurrentHashMap<>();
+
+    private final CacheProperties.Rebuild config;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+
+    public CacheRebuildScheduler(@NotNull CacheProperties cacheProperties, @NotNull CacheMetrics metrics) {
+        this.config = cacheProperties.getRebuild();
+        this.executor = new ThreadPoolExecutor(
+                config.getThreads(),
+                config.getThreads(),
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(config.getQueueCapacity()),
+                new NamedThreadFactory("cache-rebuild-", true),
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+        metrics.gauge("cache.rebuild.queue", this, CacheRebuildScheduler::queueDepth);
+    }
+
+    /**
+     * 本节点是否已有该key的重建任务
+     */
+    public boolean isPending(@NotNull String key) {
+        return pendingKeys.contains(key);
+    }
+
+    /**
+     * 提交重建任务
+     *
+     * @return false表示重复提交、前缀并发已满或队列已满，任务未执行
+     */
+    public boolean submit(@NotNull String keyPrefix, @NotNull String key, @NotNull Runnable task) {
+        // 1.同一个key只保留一个任务
+        if (!pendingKeys.add(key)) {
+            deduplicated.increment();
+            return false;
+        }
+        // 2.按前缀限制同时排队和执行的任务数
+        val permits = prefixPermits.computeIfAbsent(keyPrefix,
+                prefix -> new Semaphore(config.getPrefixLimits().getOrDefault(prefix, config.getDefaultPrefixLimit())));
+        if (!permits.tryAcquire()) {
+            pendingKeys.remove(key);
+            rejected.increment();
+            return false;
+        }
+        // 3.队列满时拒绝，由调用方继续返回旧数据
+        try {
+            executor.execute(() -> {
+                val start = System.nanoTime();
+                try {
+                    task.run();
+                    completed.increment();
+                } catch (Exception e) {
+                    failed.increment();
+                    log.error("缓存重建失败，key={}", key, e);
+                } finally {
+                    totalNanos.add(System.nanoTime() - start);
+                    permits.release();
+                    pendingKeys.remove(key);
+                }
+            });
+            submitted.increment();
+            return true;
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            pendingKeys.remove(key);
+            rejected.increment();
+            return false;
+        }
+    }
+
+    /**
+     * 当前排队中的任务数
+     */
+    public int queueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public @NotNull Map<String, Object> stats() {
+        val finished = completed.sum() + failed.sum();
+        val map = new LinkedHashMap<String, Object>();
+        map.put("queueDepth", queueDepth());
+        map.put("activeCount", executor.getActiveCount());
+        map.put("pendingKeys", pendingKeys.size());
+        map.put("submitted", submitted.sum());
+        map.put("deduplicated", deduplicated.sum());
+        map.put("rejected", rejected.sum());
+        map.put("completed", completed.sum());
+        map.put("failed", failed.sum());
+        map.put("avgRebuildMillis", finished == 0 ? 0 : totalNanos.sum() / finished / 1_000_000.0);
+        return map;
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        executor.shutdown();
+    }
+}
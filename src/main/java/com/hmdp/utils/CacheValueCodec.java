@@ -0,0 +1,207 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.config.CacheProperties;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * 缓存值的编解码：注册了 CacheCodec 的类型按二进制格式写入，其余类型和旧数据按JSON读写，
+ * 并按编码格式统计负载大小与编解码耗时
+ */
+@Slf4j
+@Component
+public class CacheValueCodec {
+
+    /**
+     * 二进制缓存值的首字节，UTF-8编码的JSON不会以该字节开头，据此区分新旧格式
+     */
+    private static final byte BINARY_MAGIC = (byte) 0xFE;
+    private static final byte FORMAT_PLAIN = 1;
+    private static final byte FORMAT_LOGICAL = 2;
+    private static final byte FORMAT_LOGICAL_WITH_COST = 3;
+    private static final int BINARY_HEADER_LENGTH = 3;
+    private static final String JSON_CODEC = "json";
+
+    /**
+     * 类型 -> 二进制编解码器
+     */
+    private final Map<Class<?>, CacheCodec<?>> codecs = new HashMap<>();
+
+    /**
+     * 是否以二进制格式写入，读取时总是兼容两种格式
+     */
+    private final boolean binaryEnabled;
+
+    /**
+     * 编码格式名称 -> 统计
+     */
+    private final Map<String, CodecStats> codecStats = new ConcurrentHashMap<>();
+
+    public CacheValueCodec(@NotNull CacheProperties cacheProperties, @NotNull List<CacheCodec<?>> codecs) {
+        for (val codec : codecs) {
+            this.codecs.put(codec.type(), codec);
+        }
+        this.binaryEnabled = cacheProperties.getCodec().isBinaryEnabled();
+    }
+
+    /**
+     * 各编码格式的负载大小与编解码耗时，用于与JSON对比
+     */
+    public @NotNull List<Map<String, Object>> stats() {
+        return codecStats.values().stream().map(CodecStats::snapshot).collect(Collectors.toList());
+    }
+
+    private @Nullable CacheCodec<?> writeCodec(@NotNull Class<?> type) {
+        return binaryEnabled ? codecs.get(type) : null;
+    }
+
+    private @NotNull CodecStats statsOf(@NotNull String codecName) {
+        return codecStats.computeIfAbsent(codecName, CodecStats::new);
+    }
+
+    /**
+     * 编码普通缓存值
+     */
+    public byte @NotNull [] encode(@NotNull Object value) {
+        val codec = writeCodec(value.getClass());
+        if (codec != null) {
+            return encodeBinary(codec, FORMAT_PLAIN, null, 0, value);
+        }
+        val start = System.nanoTime();
+        val bytes = JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+        statsOf(JSON_CODEC).recordEncode(bytes.length, System.nanoTime() - start);
+        return bytes;
+    }
+
+    /**
+     * 编码逻辑过期的缓存值，连同逻辑过期时间和重建耗时
+     */
+    public byte @NotNull [] encodeLogical(
+            @NotNull Object value,
+            @NotNull LocalDateTime expireTime,
+            long rebuildCost
+    ) {
+        val codec = writeCodec(value.getClass());
+        if (codec != null) {
+            return encodeBinary(codec, FORMAT_LOGICAL_WITH_COST, expireTime, rebuildCost, value);
+        }
+        val start = System.nanoTime();
+        val redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setExpireTime(expireTime);
+        redisData.setRebuildCost(rebuildCost);
+        val bytes = JSONUtil.toJsonStr(redisData).getBytes(StandardCharsets.UTF_8);
+        statsOf(JSON_CODEC).recordEncode(bytes.length, System.nanoTime() - start);
+        return bytes;
+    }
+
+    /**
+     * 二进制格式：魔数(1) + 格式(1) + 编解码器版本(1) + [逻辑过期时间毫秒(8) + 重建耗时毫秒(4)] + 数据
+     */
+    @SuppressWarnings("unchecked")
+    private byte @NotNull [] encodeBinary(
+            @NotNull CacheCodec<?> codec,
+            byte format,
+            @Nullable LocalDateTime expireTime,
+            long rebuildCost,
+            @NotNull Object value
+    ) {
+        val start = System.nanoTime();
+        val buffer = new ByteArrayOutputStream(256);
+        try (val out = new DataOutputStream(buffer)) {
+            out.writeByte(BINARY_MAGIC);
+            out.writeByte(format);
+            out.writeByte(codec.version());
+            if (expireTime != null) {
+                out.writeLong(expireTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+                out.writeInt((int) Math.min(rebuildCost, Integer.MAX_VALUE));
+            }
+            ((CacheCodec<Object>) codec).encode(value, out);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        val bytes = buffer.toByteArray();
+        statsOf(codec.name()).recordEncode(bytes.length, System.nanoTime() - start);
+        return bytes;
+    }
+
+    /**
+     * 解码普通缓存值，返回null表示数据版本不兼容，按未命中处理
+     */
+    public <R> @Nullable R decode(byte @NotNull [] bytes, @NotNull Class<R> type) {
+        if (bytes[0] == BINARY_MAGIC) {
+            val redisData = decodeBinary(bytes, false, type);
+            return redisData == null ? null : type.cast(redisData.getData());
+        }
+        val start = System.nanoTime();
+        val r = JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), type);
+        statsOf(JSON_CODEC).recordDecode(bytes.length, System.nanoTime() - start);
+        return r;
+    }
+
+    /**
+     * 解码逻辑过期的缓存值，data为解码后的对象；返回null表示数据版本不兼容
+     */
+    public <R> @Nullable RedisData decodeLogical(byte @NotNull [] bytes, @NotNull Class<R> type) {
+        if (bytes[0] == BINARY_MAGIC) {
+            return decodeBinary(bytes, true, type);
+        }
+        val start = System.nanoTime();
+        val redisData = JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), RedisData.class);
+        redisData.setData(JSONUtil.toBean((JSONObject) redisData.getData(), type));
+        statsOf(JSON_CODEC).recordDecode(bytes.length, System.nanoTime() - start);
+        return redisData;
+    }
+
+    private @Nullable RedisData decodeBinary(byte @NotNull [] bytes, boolean logical, @NotNull Class<?> type) {
+        val codec = codecs.get(type);
+        if (codec == null || bytes.length < BINARY_HEADER_LENGTH || bytes[2] != codec.version()) {
+            return null;
+        }
+        val format = bytes[1];
+        val formatMatches = logical
+                ? format == FORMAT_LOGICAL || format == FORMAT_LOGICAL_WITH_COST
+                : format == FORMAT_PLAIN;
+        if (!formatMatches) {
+            return null;
+        }
+        val start = System.nanoTime();
+        try (val in = new DataInputStream(
+                new ByteArrayInputStream(bytes, BINARY_HEADER_LENGTH, bytes.length - BINARY_HEADER_LENGTH))) {
+            val redisData = new RedisData();
+            if (logical) {
+                redisData.setExpireTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(in.readLong()), ZoneId.systemDefault()));
+            }
+            if (format == FORMAT_LOGICAL_WITH_COST) {
+                redisData.setRebuildCost((long) in.readInt());
+            }
+            redisData.setData(codec.decode(in));
+            statsOf(codec.name()).recordDecode(bytes.length, System.nanoTime() - start);
+            return redisData;
+        } catch (IOException e) {
+            log.warn("缓存数据解码失败，按未命中处理", e);
+            return null;
+        }
+    }
+
+}
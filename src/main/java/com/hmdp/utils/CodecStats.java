@@ -0,0 +1,53 @@
+package com.hmdp.utils;
+
+import lombok.Getter;
+import lombok.val;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个编码格式的统计：次数、负载大小、编解码耗时
+ */
+public class CodecStats {
+    @Getter
+    private final String name;
+    private final LongAdder encodeCount = new LongAdder();
+    private final LongAdder encodeNanos = new LongAdder();
+    private final LongAdder encodeBytes = new LongAdder();
+    private final LongAdder decodeCount = new LongAdder();
+    private final LongAdder decodeNanos = new LongAdder();
+    private final LongAdder decodeBytes = new LongAdder();
+
+    public CodecStats(@NotNull String name) {
+        this.name = name;
+    }
+
+    public void recordEncode(int bytes, long nanos) {
+        encodeCount.increment();
+        encodeBytes.add(bytes);
+        encodeNanos.add(nanos);
+    }
+
+    public void recordDecode(int bytes, long nanos) {
+        decodeCount.increment();
+        decodeBytes.add(bytes);
+        decodeNanos.add(nanos);
+    }
+
+    public @NotNull Map<String, Object> snapshot() {
+        val encodes = encodeCount.sum();
+        val decodes = decodeCount.sum();
+        val map = new LinkedHashMap<String, Object>();
+        map.put("name", name);
+        map.put("encodeCount", encodes);
+        map.put("avgEncodeBytes", encodes == 0 ? 0 : encodeBytes.sum() / encodes);
+        map.put("avgEncodeMicros", encodes == 0 ? 0 : encodeNanos.sum() / encodes / 1000.0);
+        map.put("decodeCount", decodes);
+        map.put("avgDecodeBytes", decodes == 0 ? 0 : decodeBytes.sum() / decodes);
+        map.put("avgDecodeMicros", decodes == 0 ? 0 : decodeNanos.sum() / decodes / 1000.0);
+        return map;
+    }
+}
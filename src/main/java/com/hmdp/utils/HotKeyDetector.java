@@ -0,0 +1,194 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+import lombok.val;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * 热点key探测：按采样率记录访问，计数保存在按时间分桶的 count-min sketch 中，
+ * 所有桶加起来就是滑动窗口内的访问次数估计值。
+ * 估计值达到阈值的key晋升为热点，降到阈值的 demoteRatio 以下时降级
+ */
+public class HotKeyDetector {
+
+    private final int width;
+    private final int depth;
+    private final long bucketMillis;
+    private final double sampleRate;
+    private final long threshold;
+    private final long demoteThreshold;
+    private final int maxHotKeys;
+    private final Consumer<String> onDemote;
+
+    /**
+     * 每个时间桶一个 depth*width 的计数矩阵
+     */
+    private final AtomicIntegerArray[] buckets;
+
+    /**
+     * 每个桶当前对应的时间片编号，过期的桶在复用前清零
+     */
+    private final long[] bucketEpochs;
+
+    /**
+     * 热点key -> 晋升时间戳
+     */
+    private final Map<String, Long> hotKeys = new ConcurrentHashMap<>();
+
+    private volatile long currentEpoch;
+
+    /**
+     * @param windowMillis  滑动窗口长度
+     * @param windowBuckets 窗口分成的桶数，越多窗口滑动越平滑
+     * @param sampleRate    采样率，(0, 1]
+     * @param threshold     窗口内访问次数达到该值时晋升为热点
+     * @param demoteRatio   估计值低于 threshold*demoteRatio 时降级
+     * @param onDemote      降级回调，用于清理本地副本
+     */
+    public HotKeyDetector(
+            int width,
+            int depth,
+            long windowMillis,
+            int windowBuckets,
+            double sampleRate,
+            long threshold,
+            double demoteRatio,
+            int maxHotKeys,
+            @NotNull Consumer<String> onDemote
+    ) {
+        if (width <= 0 || depth <= 0 || windowBuckets <= 0 || windowMillis < windowBuckets
+                || sampleRate <= 0 || sampleRate > 1 || threshold <= 0) {
+            throw new IllegalArgumentException("热点key探测参数错误");
+        }
+        this.width = width;
+        this.depth = depth;
+        this.bucketMillis = windowMillis / windowBuckets;
+        this.sampleRate = sampleRate;
+        this.threshold = threshold;
+        this.demoteThreshold = (long) (threshold * demoteRatio);
+        this.maxHotKeys = maxHotKeys;
+        this.onDemote = onDemote;
+        this.buckets = new AtomicIntegerArray[windowBuckets];
+        this.bucketEpochs = new long[windowBuckets];
+        for (int i = 0; i < windowBuckets; i++) {
+            buckets[i] = new AtomicIntegerArray(width * depth);
+        }
+        this.currentEpoch = System.currentTimeMillis() / bucketMillis;
+        bucketEpochs[(int) (currentEpoch % windowBuckets)] = currentEpoch;
+    }
+
+    /**
+     * 记录一次访问
+     *
+     * @return 该key当前是否为热点
+     */
+    public boolean record(@NotNull String key) {
+        advance();
+        if (sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate) {
+            val bucket = buckets[(int) (currentEpoch % buckets.length)];
+            val hash = hash(key);
+            for (int i = 0; i < depth; i++) {
+                bucket.incrementAndGet(i * width + index(hash, i));
+            }
+            if (!hotKeys.containsKey(key) && hotKeys.size() < maxHotKeys) {
+                if (estimate(hash) >= threshold) {
+                    hotKeys.put(key, System.currentTimeMillis());
+                }
+            }
+        }
+        return hotKeys.containsKey(key);
+    }
+
+    public boolean isHot(@NotNull String key) {
+        return hotKeys.containsKey(key);
+    }
+
+    /**
+     * 当前热点key及窗口内的访问次数估计值，按估计值降序
+     */
+    public @NotNull List<Map<String, Object>> hotKeys() {
+        advance();
+        return hotKeys.keySet().stream()
+                .map(key -> {
+                    val map = new LinkedHashMap<String, Object>();
+                    map.put("key", key);
+                    map.put("estimate", estimate(hash(key)));
+                    map.put("promotedAt", hotKeys.get(key));
+                    return map;
+                })
+                .sorted(Comparator.comparingLong(map -> -(long) map.get("estimate")))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 进入新的时间片时清空最旧的桶，并对现有热点重新评估
+     */
+    private void advance() {
+        val epoch = System.currentTimeMillis() / bucketMillis;
+        if (epoch == currentEpoch) {
+            return;
+        }
+        synchronized (this) {
+            if (epoch == currentEpoch) {
+                return;
+            }
+            val slot = (int) (epoch % buckets.length);
+            if (bucketEpochs[slot] != epoch) {
+                val bucket = buckets[slot];
+                for (int i = 0; i < bucket.length(); i++) {
+                    bucket.set(i, 0);
+                }
+                bucketEpochs[slot] = epoch;
+            }
+            currentEpoch = epoch;
+        }
+        hotKeys.keySet().removeIf(key -> {
+            if (estimate(hash(key)) >= demoteThreshold) {
+                return false;
+            }
+            onDemote.accept(key);
+            return true;
+        });
+    }
+
+    /**
+     * 各行在窗口内所有桶的计数之和取最小值，再按采样率还原
+     */
+    private long estimate(long hash) {
+        val oldestEpoch = currentEpoch - buckets.length + 1;
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            val index = i * width + index(hash, i);
+            long sum = 0;
+            for (int b = 0; b < buckets.length; b++) {
+                if (bucketEpochs[b] >= oldestEpoch) {
+                    sum += buckets[b].get(index);
+                }
+            }
+            min = Math.min(min, sum);
+        }
+        return (long) (min / sampleRate);
+    }
+
+    private static long hash(@NotNull String key) {
+        val hash = MurmurHash.hash128(key);
+        // 折叠为64位，高32位和低32位作为双重哈希的两个种子
+        return hash[0] ^ hash[1];
+    }
+
+    private int index(long hash, int row) {
+        val h1 = (int) hash;
+        val h2 = (int) (hash >>> 32);
+        return ((h1 + row * h2) & Integer.MAX_VALUE) % width;
+    }
+}
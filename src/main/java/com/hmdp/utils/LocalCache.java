@@ -0,0 +1,110 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import com.hmdp.config.CacheProperties;
+import lombok.val;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 进程内的两级本地缓存：
+ * <ul>
+ *     <li>一级缓存：按配置开启，写入后按固定时间过期</li>
+ *     <li>热点key副本：由 HotKeyDetector 探测出的热点key，有效期很短，不受一级缓存开关影响</li>
+ * </ul>
+ * 两者都只缓存反序列化后的对象，失效时由 CacheClient 统一清除
+ */
+@Component
+public class LocalCache {
+
+    /**
+     * 一级缓存，未开启时为null
+     */
+    private final @Nullable LRUCache<String, Object> localCache;
+
+    /**
+     * 热点key探测，未开启时为null
+     */
+    private final @Nullable HotKeyDetector hotKeyDetector;
+
+    /**
+     * 热点key的本地副本
+     */
+    private final @Nullable LRUCache<String, Object> hotKeyCache;
+
+    public LocalCache(@NotNull CacheProperties cacheProperties, @NotNull CacheMetrics metrics) {
+        val local = cacheProperties.getLocal();
+        this.localCache = local.isEnabled()
+                ? CacheUtil.newLRUCache(local.getMaximumSize(), local.getTtl().toMillis())
+                : null;
+        val hotKey = cacheProperties.getHotKey();
+        if (hotKey.isEnabled()) {
+            this.hotKeyCache = CacheUtil.newLRUCache(hotKey.getMaxHotKeys(), hotKey.getLocalTtl().toMillis());
+            this.hotKeyDetector = new HotKeyDetector(
+                    hotKey.getSketchWidth(),
+                    hotKey.getSketchDepth(),
+                    hotKey.getWindow().toMillis(),
+                    hotKey.getWindowBuckets(),
+                    hotKey.getSampleRate(),
+                    hotKey.getThreshold(),
+                    hotKey.getDemoteRatio(),
+                    hotKey.getMaxHotKeys(),
+                    hotKeyCache::remove
+            );
+        } else {
+            this.hotKeyCache = null;
+            this.hotKeyDetector = null;
+        }
+        metrics.gauge("cache.hot.keys", this, cache -> cache.hotKeys().size());
+    }
+
+    /**
+     * 当前的热点key，未开启探测时返回空列表
+     */
+    public @NotNull List<Map<String, Object>> hotKeys() {
+        return hotKeyDetector == null ? Collections.emptyList() : hotKeyDetector.hotKeys();
+    }
+
+    public <R> @Nullable R get(@NotNull String key, @NotNull Class<R> type) {
+        // 记录访问，热点key优先读本地副本
+        if (hotKeyDetector != null && hotKeyDetector.record(key)) {
+            val value = hotKeyCache.get(key, false);
+            if (type.isInstance(value)) {
+                return type.cast(value);
+            }
+        }
+        if (localCache == null) {
+            return null;
+        }
+        // 不刷新访问时间，保证写入后按固定时间过期
+        val value = localCache.get(key, false);
+        return type.isInstance(value) ? type.cast(value) : null;
+    }
+
+    public void put(@NotNull String key, @Nullable Object value) {
+        if (value == null) {
+            return;
+        }
+        if (localCache != null) {
+            localCache.put(key, value);
+        }
+        if (hotKeyDetector != null && hotKeyDetector.isHot(key)) {
+            hotKeyCache.put(key, value);
+        }
+    }
+
+    public void evict(@NotNull String key) {
+        if (localCache != null) {
+            localCache.remove(key);
+        }
+        if (hotKeyCache != null) {
+            hotKeyCache.remove(key);
+        }
+    }
+}
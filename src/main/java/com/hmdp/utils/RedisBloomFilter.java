@@ -0,0 +1,185 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+import cn.hutool.core.util.BooleanUtil;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import lombok.var;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 基于Redis位图的布隆过滤器，用于在查库之前过滤掉一定不存在的id
+ */
+@Slf4j
+public class RedisBloomFilter {
+    /**
+     * Redis单个位图最多 2^32 位
+     */
+    private static final long MAX_REDIS_BITS = 1L << 32;
+
+    /**
+     * 重建锁的有效期，足够一个节点扫完全表
+     */
+    private static final long REBUILD_LOCK_TTL_MINUTES = 10;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    @Getter
+    private final String key;
+    /**
+     * 重建完成的标记，标记存在之前过滤器视为尚未建立
+     */
+    private final String readyKey;
+    @Getter
+    private final long numBits;
+    @Getter
+    private final int numHashFunctions;
+
+    /**
+     * @param expectedInsertions 预计元素数量
+     * @param fpp                期望误判率
+     * @param maxBytes           位图占用内存上限，超出时缩小位图，误判率随之升高
+     */
+    public RedisBloomFilter(
+            @NotNull StringRedisTemplate stringRedisTemplate,
+            @NotNull String key,
+            long expectedInsertions,
+            double fpp,
+            long maxBytes
+    ) {
+        if (expectedInsertions <= 0 || fpp <= 0 || fpp >= 1 || maxBytes <= 0) {
+            throw new IllegalArgumentException("布隆过滤器参数错误：" + key);
+        }
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.key = key;
+        this.readyKey = key + ":ready";
+        // 最优位数 m = -n*ln(p)/(ln2)^2，受内存上限约束
+        val optimalBits = (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.numBits = Math.max(64, Math.min(optimalBits, Math.min(maxBytes * 8, MAX_REDIS_BITS)));
+        // 最优哈希函数个数 k = m/n*ln2
+        this.numHashFunctions = Math.max(1, (int) Math.round((double) numBits / expectedInsertions * Math.log(2)));
+        if (numBits < optimalBits) {
+            val actualFpp = Math.pow(1 - Math.exp(-(double) numHashFunctions * expectedInsertions / numBits), numHashFunctions);
+            log.warn("布隆过滤器 {} 受内存上限限制，实际误判率约为 {}", key, actualFpp);
+        }
+    }
+
+    /**
+     * 判断id是否可能存在。返回false时一定不存在；过滤器尚未建立时返回true，避免误拦截
+     */
+    public boolean mightContain(@NotNull Object id) {
+        val offsets = offsets(id);
+        // 一次pipeline同时检查过滤器是否已建立以及所有位。只看位图key是否存在不够，
+        // 重建完成前 put() 就可能创建出只有少量位的key
+        val results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            val conn = (StringRedisConnection) connection;
+            conn.exists(readyKey);
+            for (val offset : offsets) {
+                conn.getBit(key, offset);
+            }
+            return null;
+        });
+        if (!Boolean.TRUE.equals(results.get(0))) {
+            return true;
+        }
+        for (int i = 1; i < results.size(); i++) {
+            if (!Boolean.TRUE.equals(results.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 新增元素，新增数据时调用以保持同步
+     */
+    public void put(@NotNull Object id) {
+        val offsets = offsets(id);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            val conn = (StringRedisConnection) connection;
+            for (val offset : offsets) {
+                conn.setBit(key, offset, true);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 过滤器尚未建立时全量重建。多个节点同时启动时只有拿到锁的节点重建，其余节点跳过，建立之前不拦截任何请求。
+     * 先在本地构建位图，写入临时key后用 BITOP OR 合并到正式key，重建期间其他节点 put() 的位
+     * 和扫描之后才提交的数据都会保留。位图大小由配置决定，修改配置后需要删除旧的key和标记
+     *
+     * @param chunkLoader 传入上一批的最大id，按id升序返回下一批id，返回空表示结束
+     * @return 写入的元素数量，没有重建时返回0
+     */
+    public long rebuild(@NotNull Function<Long, List<Long>> chunkLoader) {
+        if (BooleanUtil.isTrue(stringRedisTemplate.hasKey(readyKey))) {
+            log.info("布隆过滤器 {} 已建立，跳过重建", key);
+            return 0;
+        }
+        val lockKey = key + ":rebuild-lock";
+        val locked = stringRedisTemplate.opsForValue().setIfAbsent(lockKey, "1", REBUILD_LOCK_TTL_MINUTES, TimeUnit.MINUTES);
+        if (!BooleanUtil.isTrue(locked)) {
+            log.info("布隆过滤器 {} 正在由其他节点重建，跳过", key);
+            return 0;
+        }
+        try {
+            val bits = new byte[(int) ((numBits + 7) / 8)];
+            long count = 0;
+            long lastId = 0;
+            List<Long> chunk;
+            while (!(chunk = chunkLoader.apply(lastId)).isEmpty()) {
+                for (val id : chunk) {
+                    for (val offset : offsets(id)) {
+                        // Redis位图按大端序排列，第0位是第一个字节的最高位
+                        bits[(int) (offset >>> 3)] |= (byte) (0x80 >>> (offset & 7));
+                    }
+                    lastId = Math.max(lastId, id);
+                }
+                count += chunk.size();
+            }
+            val tmpKey = (key + ":rebuilding").getBytes(StandardCharsets.UTF_8);
+            val keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+                connection.set(tmpKey, bits);
+                connection.bitOp(RedisStringCommands.BitOperation.OR, keyBytes, keyBytes, tmpKey);
+                connection.del(tmpKey);
+                return null;
+            });
+            // 补上重建期间新增的数据
+            while (!(chunk = chunkLoader.apply(lastId)).isEmpty()) {
+                for (val id : chunk) {
+                    put(id);
+                    lastId = Math.max(lastId, id);
+                }
+                count += chunk.size();
+            }
+            stringRedisTemplate.opsForValue().set(readyKey, "1");
+            log.info("布隆过滤器 {} 重建完成，元素数量 {}，位数 {}，哈希函数 {} 个", key, count, numBits, numHashFunctions);
+            return count;
+        } finally {
+            stringRedisTemplate.delete(lockKey);
+        }
+    }
+
+    private long @NotNull [] offsets(@NotNull Object id) {
+        // 双重哈希：第i个哈希值为 h1 + i*h2
+        val hash = MurmurHash.hash128(id.toString());
+        val offsets = new long[numHashFunctions];
+        var combined = hash[0];
+        for (int i = 0; i < numHashFunctions; i++) {
+            offsets[i] = (combined & Long.MAX_VALUE) % numBits;
+            combined += hash[1];
+        }
+        return offsets;
+    }
+}
@@ -8,4 +8,8 @@ import java.time.LocalDateTime;
 public class RedisData {
     private LocalDateTime expireTime;
     private Object data;
+    /**
+     * 上次重建的查库耗时，单位毫秒
+     */
+    private Long rebuildCost;
 }
@@ -7,6 +7,8 @@ import org.springframework.stereotype.Component;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Component
 @AllArgsConstructor
@@ -20,21 +22,71 @@ public class RedisIdWorker {
      */
     private static final int COUNT_BITS = 32;
 
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
     private final StringRedisTemplate stringRedisTemplate;
 
+    /**
+     * 计数器key -> 本地号段 [下一个序列号, 号段末尾]
+     */
+    private final Map<String, long[]> segments = new ConcurrentHashMap<>();
+
     public long nextId(String keyPrefix) {
         // 1.生成时间戳
         LocalDateTime now = LocalDateTime.now();
-        long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
-        long timestamp = nowSecond - BEGIN_TIMESTAMP;
+        long timestamp = timestamp(now);
 
-        // 2.生成序列号
-        // 2.1.获取当前日期，精确到天
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        // 2.2.自增长
-        long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        // 2.生成序列号，按天自增长
+        long count = stringRedisTemplate.opsForValue().increment(counterKey(keyPrefix, now));
 
         // 3.拼接并返回
+        return compose(timestamp, count);
+    }
+
+    /**
+     * 从本地号段中取一个序列号，号段用完时一次 INCRBY step 预取下一段，大部分调用不访问Redis。
+     * 和 nextId 以及脚本中的自增共用同一个计数器，生成的序列号不会重复，但不再严格递增
+     */
+    public long nextSequence(String keyPrefix, LocalDateTime now, int step) {
+        String key = counterKey(keyPrefix, now);
+        long[] segment = segments.get(key);
+        if (segment == null) {
+            // 进入新的一天，丢弃前一天的号段
+            segments.keySet().removeIf(k -> k.startsWith("icr:" + keyPrefix + ":") && !k.equals(key));
+            segment = segments.computeIfAbsent(key, k -> new long[]{1, 0});
+        }
+        synchronized (segment) {
+            if (segment[0] > segment[1]) {
+                long end = stringRedisTemplate.opsForValue().increment(key, step);
+                segment[0] = end - step + 1;
+                segment[1] = end;
+            }
+            return segment[0]++;
+        }
+    }
+
+    /**
+     * id的时间戳部分
+     */
+    public static long timestamp(LocalDateTime now) {
+        return now.toEpochSecond(ZoneOffset.UTC) - BEGIN_TIMESTAMP;
+    }
+
+    /**
+     * 序列号计数器的key，精确到天。Lua脚本中自增序列号时使用同一个key
+     */
+    public static String counterKey(String keyPrefix, LocalDateTime now) {
+        return "icr:" + keyPrefix + ":" + now.format(DATE_FORMATTER);
+    }
+
+    public static long compose(long timestamp, long count) {
         return timestamp << COUNT_BITS | count;
     }
+
+    /**
+     * 从id中取出时间戳部分，与 timestamp 的结果可以直接比较
+     */
+    public static long timestampOf(long id) {
+        return id >>> COUNT_BITS;
+    }
 }
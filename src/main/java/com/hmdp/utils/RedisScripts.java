@@ -0,0 +1,80 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.io.IoUtil;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lua脚本注册表。启动时读取 classpath:lua/ 下的所有脚本并 SCRIPT LOAD 到Redis，
+ * 之后按脚本名获取，执行时只发送 EVALSHA 和SHA1；
+ * Redis重启或切换后脚本缓存丢失时，RedisTemplate 收到 NOSCRIPT 会自动改用 EVAL 重新加载
+ */
+@Slf4j
+@Component
+public class RedisScripts {
+
+    private static final String LOCATION = "classpath*:lua/*.lua";
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 脚本名（不含 .lua） -> 脚本内容
+     */
+    private final Map<String, String> sources = new ConcurrentHashMap<>();
+
+    /**
+     * 脚本名|返回类型 -> 脚本
+     */
+    private final Map<String, DefaultRedisScript<?>> scripts = new ConcurrentHashMap<>();
+
+    public RedisScripts(@NotNull StringRedisTemplate stringRedisTemplate) throws IOException {
+        this.stringRedisTemplate = stringRedisTemplate;
+        for (val resource : new PathMatchingResourcePatternResolver().getResources(LOCATION)) {
+            try (val in = resource.getInputStream()) {
+                sources.put(FileUtil.mainName(resource.getFilename()), IoUtil.read(in, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    /**
+     * 预先加载所有脚本，第一次执行时就能命中 EVALSHA
+     */
+    @PostConstruct
+    private void load() {
+        sources.forEach((name, source) -> {
+            try {
+                stringRedisTemplate.execute((RedisCallback<String>) connection ->
+                        connection.scriptingCommands().scriptLoad(source.getBytes(StandardCharsets.UTF_8)));
+            } catch (Exception e) {
+                // 执行时会回退到 EVAL
+                log.warn("预加载Lua脚本失败，script={}", name, e);
+            }
+        });
+        log.info("已加载Lua脚本 {} 个：{}", sources.size(), sources.keySet());
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> @NotNull RedisScript<T> get(@NotNull String name, @NotNull Class<T> resultType) {
+        return (RedisScript<T>) scripts.computeIfAbsent(name + "|" + resultType.getName(), k -> {
+            val source = sources.get(name);
+            if (source == null) {
+                throw new IllegalArgumentException("Lua脚本不存在：" + name);
+            }
+            return new DefaultRedisScript<>(source, resultType);
+        });
+    }
+}
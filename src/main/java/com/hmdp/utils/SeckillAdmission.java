@@ -0,0 +1,213 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.IdUtil;
+import com.hmdp.config.SeckillProperties;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_NODES_KEY;
+
+/**
+ * 秒杀入口的准入控制，请求量远大于库存时在扣减库存之前拒绝多余的请求，保护Redis。
+ * <ol>
+ *     <li>本地令牌桶：每个秒杀券一个，CAS更新，不加锁，不访问Redis。
+ *     速率为 全局速率 * LOCAL_HEADROOM / 存活节点数，留出余量应对负载不均，精确的总量由Redis中的令牌桶控制</li>
+ *     <li>Redis令牌桶：合并在秒杀脚本中，每个库存分片一个，和库存使用同一个hash tag，速率为 全局速率 / 分片数。
+ *     用户按id固定落在一个分片上，各分片的请求量大致相同；一次秒杀仍然只有一次 EVALSHA，也不会集中到一个key上</li>
+ * </ol>
+ * 全局速率 = max(剩余库存 * permitsPerStock, minPermits)，每隔 refresh 由一个请求读取一次剩余库存后调整。
+ * 存活节点数由各节点在 seckill:nodes 中的心跳统计，同样每隔 refresh 刷新一次
+ */
+@Slf4j
+@Component
+public class SeckillAdmission {
+
+    public static final String LOCAL = "local";
+    public static final String GLOBAL = "global";
+
+    private static final double LOCAL_HEADROOM = 2;
+
+    /**
+     * 心跳超过 refresh * NODE_TTL_FACTOR 没有更新的节点视为已下线
+     */
+    private static final int NODE_TTL_FACTOR = 5;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillKeys seckillKeys;
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    @Resource
+    private SeckillMetrics seckillMetrics;
+
+    /**
+     * 优惠券id -> 限流器
+     */
+    private final Map<Long, Limiter> limiters = new ConcurrentHashMap<>();
+
+    /**
+     * 本节点在心跳中的标识
+     */
+    private final String nodeId = IdUtil.fastSimpleUUID();
+
+    /**
+     * 存活的节点数，至少为1
+     */
+    private volatile int nodes = 1;
+
+    private final AtomicLong nodesRefreshAt = new AtomicLong();
+
+    /**
+     * 本地令牌桶
+     *
+     * @param shards 秒杀券的库存分片数
+     * @return 是否放行，不放行时由调用方直接返回繁忙
+     */
+    public boolean tryAcquire(@NotNull Long voucherId, int shards) {
+        val config = seckillProperties.getAdmission();
+        if (!config.isEnabled()) {
+            return true;
+        }
+        refreshNodesIfStale();
+        val limiter = limiters.computeIfAbsent(voucherId, k -> new Limiter());
+        refreshIfStale(voucherId, shards, limiter);
+        val permits = limiter.permits;
+        if (permits <= 0) {
+            // 还没有读到库存，只经过Redis中的令牌桶
+            return true;
+        }
+        if (!limiter.tryAcquire(Math.max(1, permits * LOCAL_HEADROOM / nodes))) {
+            seckillMetrics.rejected(LOCAL);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 秒杀脚本中每个库存分片的令牌桶速率，0表示不限流
+     */
+    public double shardRate(@NotNull Long voucherId, int shards) {
+        val config = seckillProperties.getAdmission();
+        if (!config.isEnabled()) {
+            return 0;
+        }
+        val limiter = limiters.get(voucherId);
+        val permits = limiter == null || limiter.permits <= 0 ? config.getMinPermits() : limiter.permits;
+        return Math.max(1, permits / Math.max(1, shards));
+    }
+
+    /**
+     * 秒杀脚本中的令牌桶拒绝了请求
+     */
+    public void rejectedByShard() {
+        seckillMetrics.rejected(GLOBAL);
+    }
+
+    /**
+     * 按剩余库存调整速率，同一时间只有一个请求读取库存，其他请求继续使用旧的速率
+     */
+    private void refreshIfStale(@NotNull Long voucherId, int shards, @NotNull Limiter limiter) {
+        val config = seckillProperties.getAdmission();
+        val now = System.currentTimeMillis();
+        val refreshAt = limiter.refreshAt.get();
+        if (now < refreshAt || !limiter.refreshAt.compareAndSet(refreshAt, now + config.getRefresh().toMillis())) {
+            return;
+        }
+        try {
+            limiter.permits = Math.max(remainingStock(voucherId, shards) * config.getPermitsPerStock(), config.getMinPermits());
+        } catch (Exception e) {
+            log.warn("读取秒杀券剩余库存失败，voucherId={}", voucherId, e);
+        }
+    }
+
+    /**
+     * 更新本节点的心跳并统计存活的节点数，同一时间只有一个请求执行，失败时沿用旧值
+     */
+    private void refreshNodesIfStale() {
+        val refresh = seckillProperties.getAdmission().getRefresh().toMillis();
+        val now = System.currentTimeMillis();
+        val refreshAt = nodesRefreshAt.get();
+        if (now < refreshAt || !nodesRefreshAt.compareAndSet(refreshAt, now + refresh)) {
+            return;
+        }
+        try {
+            val results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                val conn = (StringRedisConnection) connection;
+                conn.zAdd(SECKILL_NODES_KEY, now, nodeId);
+                conn.zRemRangeByScore(SECKILL_NODES_KEY, 0, now - refresh * NODE_TTL_FACTOR);
+                conn.zCard(SECKILL_NODES_KEY);
+                return null;
+            });
+            val alive = (Long) results.get(2);
+            nodes = alive == null ? 1 : (int) Math.max(1, alive);
+        } catch (Exception e) {
+            log.warn("更新秒杀节点心跳失败", e);
+        }
+    }
+
+    private long remainingStock(@NotNull Long voucherId, int shards) {
+        val values = stringRedisTemplate.opsForValue().multiGet(seckillKeys.stockKeys(voucherId, shards));
+        long stock = 0;
+        if (values != null) {
+            for (val value : values) {
+                if (value != null) {
+                    stock += Math.max(0, Long.parseLong(value));
+                }
+            }
+        }
+        return stock;
+    }
+
+    private static class Limiter {
+        /**
+         * 全局每秒放行的请求数，0表示还没有读到库存
+         */
+        private volatile double permits;
+
+        private final AtomicLong refreshAt = new AtomicLong();
+
+        private final AtomicReference<Bucket> bucket = new AtomicReference<>(new Bucket(-1, System.nanoTime()));
+
+        /**
+         * 容量和每秒补充的令牌数都是 rate，即最多允许1秒的突发
+         */
+        private boolean tryAcquire(double rate) {
+            while (true) {
+                val current = bucket.get();
+                val now = System.nanoTime();
+                // 新建的令牌桶是满的
+                val tokens = current.tokens < 0
+                        ? rate
+                        : Math.min(rate, current.tokens + (now - current.nanos) * rate / 1_000_000_000L);
+                if (tokens < 1) {
+                    return false;
+                }
+                if (bucket.compareAndSet(current, new Bucket(tokens - 1, now))) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    @AllArgsConstructor
+    private static class Bucket {
+        private final double tokens;
+        private final long nanos;
+    }
+}
@@ -0,0 +1,164 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProperties;
+import lombok.val;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ADMIT_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_DLQ_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_FAILURE_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_VOUCHER_KEY;
+
+/**
+ * 秒杀相关的key。
+ * <ul>
+ *     <li>单机模式：seckill:stock:{id}[:{shard}]，订单按用户分到 stream.orders:{partition}</li>
+ *     <li>集群模式：同一个库存分片的库存、已下单用户和订单stream使用同一个hash tag，
+ *     如 seckill:stock:{42:1}、seckill:order:{42:1}、seckill:voucher:{42:1}、seckill:admit:{42:1}、stream.orders:{42:1}，落在同一个slot中，
+ *     秒杀脚本只访问一个节点；不同的秒杀券和库存分片分散到各个节点</li>
+ * </ul>
+ * shard 为 -1 表示未分片
+ */
+@Component
+public class SeckillKeys {
+
+    private final SeckillProperties seckillProperties;
+
+    public SeckillKeys(@NotNull SeckillProperties seckillProperties) {
+        this.seckillProperties = seckillProperties;
+    }
+
+    public boolean isCluster() {
+        return seckillProperties.getCluster().isEnabled();
+    }
+
+    public @NotNull String stockKey(@NotNull Long voucherId, int shard) {
+        return SECKILL_STOCK_KEY + suffix(voucherId, shard);
+    }
+
+    /**
+     * 秒杀券的所有库存key，未分片时只有一个，下标即分片号
+     */
+    public @NotNull List<String> stockKeys(@NotNull Long voucherId, int shards) {
+        val keys = new ArrayList<String>(shards);
+        if (shards <= 1) {
+            keys.add(stockKey(voucherId, -1));
+        } else {
+            for (int i = 0; i < shards; i++) {
+                keys.add(stockKey(voucherId, i));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * 把数量尽量平均地拆到各个库存分片，前 count % shards 个分片各多分一件，下标和 stockKeys 一一对应
+     */
+    public static int @NotNull [] split(int count, int shards) {
+        val n = Math.max(1, shards);
+        val shares = new int[n];
+        for (int i = 0; i < n; i++) {
+            shares[i] = count / n + (i < count % n ? 1 : 0);
+        }
+        return shares;
+    }
+
+    public @NotNull String orderKey(@NotNull Long voucherId, int shard) {
+        return SECKILL_ORDER_KEY + suffix(voucherId, shard);
+    }
+
+    /**
+     * 秒杀券的时间窗口和限购数量。集群模式下每个库存分片一份，和库存在同一个slot
+     */
+    public @NotNull String voucherKey(@NotNull Long voucherId, int shard) {
+        return SECKILL_VOUCHER_KEY + (isCluster() ? suffix(voucherId, shard) : voucherId.toString());
+    }
+
+    public @NotNull List<String> voucherKeys(@NotNull Long voucherId, int shards) {
+        val keys = new ArrayList<String>(shards);
+        if (!isCluster() || shards <= 1) {
+            keys.add(voucherKey(voucherId, -1));
+        } else {
+            for (int i = 0; i < shards; i++) {
+                keys.add(voucherKey(voucherId, i));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * 秒杀脚本中的准入令牌桶，每个库存分片一个，集群模式下和库存在同一个slot
+     */
+    public @NotNull String admitKey(@NotNull Long voucherId, int shard) {
+        return SECKILL_ADMIT_KEY + suffix(voucherId, shard);
+    }
+
+    /**
+     * 订单消息写入的stream：集群模式下每个库存分片一个stream，单机模式下按用户分区
+     */
+    public @NotNull String orderStreamKey(@NotNull Long voucherId, int shard, @NotNull Long userId) {
+        if (isCluster()) {
+            return SECKILL_ORDER_STREAM_KEY + suffix(voucherId, shard);
+        }
+        return partitionStreamKey(partitionOf(userId));
+    }
+
+    /**
+     * 秒杀券的所有订单stream，只在集群模式下使用
+     */
+    public @NotNull List<String> orderStreamKeys(@NotNull Long voucherId, int shards) {
+        val keys = new ArrayList<String>(shards);
+        if (shards <= 1) {
+            keys.add(SECKILL_ORDER_STREAM_KEY + suffix(voucherId, -1));
+        } else {
+            for (int i = 0; i < shards; i++) {
+                keys.add(SECKILL_ORDER_STREAM_KEY + suffix(voucherId, i));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * 集群模式下订单stream所属库存分片的秒杀券信息key，和stream使用同一个hash tag
+     */
+    public @NotNull String voucherKeyOfStream(@NotNull String streamKey) {
+        return SECKILL_VOUCHER_KEY + streamKey.substring(SECKILL_ORDER_STREAM_KEY.length());
+    }
+
+    /**
+     * 单机模式下用户所在的订单分区
+     */
+    public int partitionOf(@NotNull Long userId) {
+        return (int) Math.floorMod(userId, (long) seckillProperties.getConsumer().getPartitions());
+    }
+
+    public @NotNull String partitionStreamKey(int partition) {
+        return SECKILL_ORDER_STREAM_KEY + partition;
+    }
+
+    /**
+     * 死信stream。集群模式下和原stream使用同一个hash tag，转入死信的脚本才能在一个节点上执行
+     */
+    public @NotNull String deadLetterKey(@NotNull String streamKey) {
+        return isCluster() ? streamKey + ".dlq" : SECKILL_ORDER_DLQ_KEY;
+    }
+
+    /**
+     * 记录失败原因的hash，规则同死信stream
+     */
+    public @NotNull String failureKey(@NotNull String streamKey) {
+        return isCluster() ? streamKey + ".failures" : SECKILL_ORDER_FAILURE_KEY;
+    }
+
+    private @NotNull String suffix(@NotNull Long voucherId, int shard) {
+        val tag = shard < 0 ? voucherId.toString() : voucherId + ":" + shard;
+        return isCluster() ? "{" + tag + "}" : tag;
+    }
+}
@@ -0,0 +1,117 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.val;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 秒杀订单stream的指标，通过 /actuator/prometheus 暴露
+ * <ul>
+ *     <li>seckill.orders：按 result 区分 failed（处理失败）、claimed（被恢复任务认领）、dead_lettered（转入死信）</li>
+ *     <li>seckill.admission.rejected：秒杀入口拒绝的请求数，按 stage 区分 local（本地令牌桶）、global（全局令牌桶）</li>
+ *     <li>seckill.orders.latency：订单从写入stream到入库的端到端延迟</li>
+ *     <li>seckill.stream.length、seckill.stream.trimmed：各订单stream的长度和累计裁剪的消息数</li>
+ *     <li>seckill.stream.pending：各订单stream消费者组待确认的消息数</li>
+ *     <li>seckill.stream.pending.age：各订单stream最早的待确认消息已经等待的时间，单位毫秒</li>
+ *     <li>seckill.stream.lag：各订单stream最新消息与最后投递消息之间的时间差，单位毫秒</li>
+ * </ul>
+ */
+@Component
+public class SeckillMetrics {
+
+    public static final String FAILED = "failed";
+    public static final String CLAIMED = "claimed";
+    public static final String DEAD_LETTERED = "dead_lettered";
+
+    private final MeterRegistry registry;
+
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    private final Timer latency;
+
+    /**
+     * 指标名+stream -> 最近一次采集的值
+     */
+    private final Map<String, AtomicLong> gauges = new ConcurrentHashMap<>();
+
+    public SeckillMetrics(@NotNull MeterRegistry registry) {
+        this.registry = registry;
+        this.latency = Timer.builder("seckill.orders.latency")
+                .description("订单从写入stream到入库的延迟")
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    public void latency(long millis) {
+        latency.record(Math.max(0, millis), TimeUnit.MILLISECONDS);
+    }
+
+    public void orders(@NotNull String result, long count) {
+        if (count <= 0) {
+            return;
+        }
+        counters.computeIfAbsent(result, k -> Counter
+                .builder("seckill.orders")
+                .description("订单消息处理结果")
+                .tag("result", result)
+                .register(registry)
+        ).increment(count);
+    }
+
+    public void rejected(@NotNull String stage) {
+        counters.computeIfAbsent("rejected|" + stage, k -> Counter
+                .builder("seckill.admission.rejected")
+                .description("秒杀入口拒绝的请求数")
+                .tag("stage", stage)
+                .register(registry)
+        ).increment();
+    }
+
+    public void length(@NotNull String stream, long value) {
+        gauge("seckill.stream.length", "订单stream的长度", stream).set(value);
+    }
+
+    public void trimmed(@NotNull String stream, long count) {
+        if (count <= 0) {
+            return;
+        }
+        counters.computeIfAbsent("trimmed|" + stream, k -> Counter
+                .builder("seckill.stream.trimmed")
+                .description("裁剪掉的已确认订单消息数")
+                .tag("stream", stream)
+                .register(registry)
+        ).increment(count);
+    }
+
+    public void pending(@NotNull String stream, long value) {
+        gauge("seckill.stream.pending", "待确认的订单消息数", stream).set(value);
+    }
+
+    public void pendingAge(@NotNull String stream, long millis) {
+        gauge("seckill.stream.pending.age", "最早的待确认订单消息已等待的时间（毫秒）", stream).set(millis);
+    }
+
+    public void lag(@NotNull String stream, long millis) {
+        gauge("seckill.stream.lag", "最新订单消息与最后投递消息的时间差（毫秒）", stream).set(millis);
+    }
+
+    private @NotNull AtomicLong gauge(@NotNull String name, @NotNull String description, @NotNull String stream) {
+        return gauges.computeIfAbsent(name + "|" + stream, k -> {
+            val value = new AtomicLong();
+            Gauge.builder(name, value, AtomicLong::get)
+                    .description(description)
+                    .tag("stream", stream)
+                    .register(registry);
+            return value;
+        });
+    }
+}
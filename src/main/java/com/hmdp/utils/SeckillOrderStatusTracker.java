@@ -0,0 +1,124 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.VoucherOrderStatusDTO;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STATUS_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STATUS_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STATUS_TTL;
+
+/**
+ * 秒杀订单的处理状态。订单消费者把入库成功或最终失败的结果写入一个短期有效的key，并通过 pub/sub 广播，
+ * 每批订单只广播一条消息。查询只读这个key；长轮询的请求在本节点登记等待，收到广播或等待超时后返回
+ */
+@Slf4j
+@Component
+public class SeckillOrderStatusTracker {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 订单id -> 等待这个订单结果的请求
+     */
+    private final Map<Long, Set<CompletableFuture<VoucherOrderStatusDTO>>> waiters = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService timer =
+            Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("order-status-", true));
+
+    @PreDestroy
+    private void destroy() {
+        timer.shutdownNow();
+    }
+
+    /**
+     * 一次pipeline写入一批订单的状态，整批只广播一条消息
+     */
+    public void publish(@NotNull List<VoucherOrderStatusDTO> statuses) {
+        if (statuses.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            val conn = (StringRedisConnection) connection;
+            for (val status : statuses) {
+                conn.setEx(SECKILL_ORDER_STATUS_KEY + status.getOrderId(), TimeUnit.MINUTES.toSeconds(SECKILL_ORDER_STATUS_TTL), JSONUtil.toJsonStr(status));
+            }
+            conn.publish(SECKILL_ORDER_STATUS_CHANNEL, JSONUtil.toJsonStr(statuses));
+            return null;
+        });
+    }
+
+    /**
+     * @return Redis中记录的状态，还没有结果或已过期时返回null
+     */
+    public @Nullable VoucherOrderStatusDTO get(@NotNull Long orderId) {
+        val json = stringRedisTemplate.opsForValue().get(SECKILL_ORDER_STATUS_KEY + orderId);
+        return json == null ? null : JSONUtil.toBean(json, VoucherOrderStatusDTO.class);
+    }
+
+    /**
+     * 等待订单出结果，最多等待 waitMillis，超时后返回当时Redis中的状态（可能为null）
+     */
+    public @NotNull CompletableFuture<VoucherOrderStatusDTO> await(@NotNull Long orderId, long waitMillis) {
+        val future = new CompletableFuture<VoucherOrderStatusDTO>();
+        waiters.computeIfAbsent(orderId, k -> ConcurrentHashMap.newKeySet()).add(future);
+        // 完成、超时或被取消后都移出等待列表
+        future.whenComplete((r, e) -> waiters.computeIfPresent(orderId, (k, set) -> {
+            set.remove(future);
+            return set.isEmpty() ? null : set;
+        }));
+        // 登记之后再读一次，避免在登记前刚好错过广播
+        try {
+            val current = get(orderId);
+            if (current != null && current.isFinished()) {
+                future.complete(current);
+                return future;
+            }
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        timer.schedule(() -> {
+            if (future.isDone()) {
+                return;
+            }
+            try {
+                future.complete(get(orderId));
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        }, waitMillis, TimeUnit.MILLISECONDS);
+        return future;
+    }
+
+    /**
+     * 收到一批订单的状态广播，唤醒本节点上等待其中订单的请求
+     */
+    public void onMessage(@NotNull String json) {
+        if (waiters.isEmpty()) {
+            return;
+        }
+        for (val status : JSONUtil.toList(json, VoucherOrderStatusDTO.class)) {
+            val futures = waiters.get(status.getOrderId());
+            if (futures != null) {
+                futures.forEach(future -> future.complete(status));
+            }
+        }
+    }
+}
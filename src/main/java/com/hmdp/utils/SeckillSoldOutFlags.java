@@ -0,0 +1,76 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProperties;
+import lombok.val;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_RESTOCK_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+
+/**
+ * 秒杀券的本地售罄标记。Lua脚本报告库存不足后在本节点标记售罄，并通过 pub/sub 通知其他节点，
+ * 之后的请求直接在本地拒绝，不再生成订单id、不再访问Redis；补充库存时广播清除标记。
+ * pub/sub 消息可能丢失，标记只保留 ttl，过期后由下一个请求重新经过Lua脚本确认
+ */
+@Component
+public class SeckillSoldOutFlags {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    /**
+     * 优惠券id -> 标记过期时间
+     */
+    private final Map<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    public boolean isSoldOut(@NotNull Long voucherId) {
+        val expireAt = soldOut.get(voucherId);
+        if (expireAt == null) {
+            return false;
+        }
+        if (expireAt > System.currentTimeMillis()) {
+            return true;
+        }
+        soldOut.remove(voucherId, expireAt);
+        return false;
+    }
+
+    /**
+     * 标记售罄并通知其他节点
+     */
+    public void markSoldOut(@NotNull Long voucherId) {
+        onSoldOut(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, voucherId.toString());
+    }
+
+    /**
+     * 清除售罄标记并通知其他节点
+     */
+    public void clearSoldOut(@NotNull Long voucherId) {
+        onRestock(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_RESTOCK_CHANNEL, voucherId.toString());
+    }
+
+    /**
+     * 收到售罄消息，只修改本节点的标记
+     */
+    public void onSoldOut(@NotNull Long voucherId) {
+        soldOut.put(voucherId, System.currentTimeMillis() + seckillProperties.getSoldOut().getTtl().toMillis());
+    }
+
+    /**
+     * 收到补货消息，只修改本节点的标记
+     */
+    public void onRestock(@NotNull Long voucherId) {
+        soldOut.remove(voucherId);
+    }
+}
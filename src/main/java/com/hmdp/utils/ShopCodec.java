@@ -0,0 +1,178 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import lombok.val;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.stereotype.Component;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * 店铺的二进制编码：2字节的字段存在位图，之后按固定顺序写入非空字段，字符串为4字节长度前缀加UTF-8字节，
+ * 不受 writeUTF 64KB 的限制。调整字段或格式时必须同时递增 version
+ */
+@Component
+public class ShopCodec implements CacheCodec<Shop> {
+
+    private static final byte VERSION = 2;
+
+    @Override
+    public @NotNull Class<Shop> type() {
+        return Shop.class;
+    }
+
+    @Override
+    public @NotNull String name() {
+        return "shop-binary";
+    }
+
+    @Override
+    public byte version() {
+        return VERSION;
+    }
+
+    @Override
+    public void encode(@NotNull Shop shop, @NotNull DataOutput out) throws IOException {
+        val fields = new Object[]{
+                shop.getId(), shop.getName(), shop.getTypeId(), shop.getImages(), shop.getArea(),
+                shop.getAddress(), shop.getX(), shop.getY(), shop.getAvgPrice(), shop.getSold(),
+                shop.getComments(), shop.getScore(), shop.getOpenHours(), shop.getCreateTime(), shop.getUpdateTime()
+        };
+        // 1.字段存在位图
+        int presence = 0;
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] != null) {
+                presence |= 1 << i;
+            }
+        }
+        out.writeShort(presence);
+        // 2.按顺序写入非空字段
+        if (shop.getId() != null) {
+            out.writeLong(shop.getId());
+        }
+        if (shop.getName() != null) {
+            writeString(out, shop.getName());
+        }
+        if (shop.getTypeId() != null) {
+            out.writeLong(shop.getTypeId());
+        }
+        if (shop.getImages() != null) {
+            writeString(out, shop.getImages());
+        }
+        if (shop.getArea() != null) {
+            writeString(out, shop.getArea());
+        }
+        if (shop.getAddress() != null) {
+            writeString(out, shop.getAddress());
+        }
+        if (shop.getX() != null) {
+            out.writeDouble(shop.getX());
+        }
+        if (shop.getY() != null) {
+            out.writeDouble(shop.getY());
+        }
+        if (shop.getAvgPrice() != null) {
+            out.writeLong(shop.getAvgPrice());
+        }
+        if (shop.getSold() != null) {
+            out.writeInt(shop.getSold());
+        }
+        if (shop.getComments() != null) {
+            out.writeInt(shop.getComments());
+        }
+        if (shop.getScore() != null) {
+            out.writeInt(shop.getScore());
+        }
+        if (shop.getOpenHours() != null) {
+            writeString(out, shop.getOpenHours());
+        }
+        if (shop.getCreateTime() != null) {
+            out.writeLong(toMillis(shop.getCreateTime()));
+        }
+        if (shop.getUpdateTime() != null) {
+            out.writeLong(toMillis(shop.getUpdateTime()));
+        }
+    }
+
+    @Override
+    public @NotNull Shop decode(@NotNull DataInput in) throws IOException {
+        val presence = in.readUnsignedShort();
+        val shop = new Shop();
+        if (has(presence, 0)) {
+            shop.setId(in.readLong());
+        }
+        if (has(presence, 1)) {
+            shop.setName(readString(in));
+        }
+        if (has(presence, 2)) {
+            shop.setTypeId(in.readLong());
+        }
+        if (has(presence, 3)) {
+            shop.setImages(readString(in));
+        }
+        if (has(presence, 4)) {
+            shop.setArea(readString(in));
+        }
+        if (has(presence, 5)) {
+            shop.setAddress(readString(in));
+        }
+        if (has(presence, 6)) {
+            shop.setX(in.readDouble());
+        }
+        if (has(presence, 7)) {
+            shop.setY(in.readDouble());
+        }
+        if (has(presence, 8)) {
+            shop.setAvgPrice(in.readLong());
+        }
+        if (has(presence, 9)) {
+            shop.setSold(in.readInt());
+        }
+        if (has(presence, 10)) {
+            shop.setComments(in.readInt());
+        }
+        if (has(presence, 11)) {
+            shop.setScore(in.readInt());
+        }
+        if (has(presence, 12)) {
+            shop.setOpenHours(readString(in));
+        }
+        if (has(presence, 13)) {
+            shop.setCreateTime(fromMillis(in.readLong()));
+        }
+        if (has(presence, 14)) {
+            shop.setUpdateTime(fromMillis(in.readLong()));
+        }
+        return shop;
+    }
+
+    private static void writeString(@NotNull DataOutput out, @NotNull String value) throws IOException {
+        val bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static @NotNull String readString(@NotNull DataInput in) throws IOException {
+        val bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static boolean has(int presence, int index) {
+        return (presence & (1 << index)) != 0;
+    }
+
+    private static long toMillis(@NotNull LocalDateTime time) {
+        return time.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    private static @NotNull LocalDateTime fromMillis(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,60 @@
+package com.hmdp.utils;
+
+import lombok.val;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 进程内的请求合并：同一个key同时只有一个线程（leader）执行加载，其余线程等待同一个结果
+ */
+public class SingleFlight {
+
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> calls = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    public <T> T execute(@NotNull String key, @NotNull Supplier<T> loader) {
+        val future = new CompletableFuture<Object>();
+        val inFlight = calls.putIfAbsent(key, future);
+        if (inFlight != null) {
+            // 已有线程在加载，等待其结果，结果一到立即唤醒
+            return (T) await(inFlight);
+        }
+        try {
+            val value = loader.get();
+            future.complete(value);
+            return value;
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, future);
+        }
+    }
+
+    /**
+     * 当前正在加载的key数量
+     */
+    public int inFlight() {
+        return calls.size();
+    }
+
+    private static Object await(@NotNull CompletableFuture<Object> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            // leader抛出的异常原样抛给等待的线程
+            val cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+-- 只在缓存存在时累加字段，缓存不存在时不去创建一个残缺的hash
+-- 1.参数列表
+-- 1.1.缓存key
+local key = KEYS[1]
+-- 1.2.字段名
+local field = ARGV[1]
+-- 1.3.增量
+local delta = ARGV[2]
+
+-- 2.缓存不存在，或缓存的是空值，直接返回
+if(redis.call('exists', key) == 0 or redis.call('hexists', key, '_null') == 1) then
+    return nil
+end
+-- 3.累加并返回新值
+return redis.call('hincrby', key, field, delta)
@@ -1,32 +1,103 @@
 -- 1.参数列表
--- 1.1.优惠券id
+-- 1.1.库存key
+local stockKey = KEYS[1]
+-- 1.2.已下单用户key，每人限购1件时是set，否则是 用户id -> 已购数量 的hash
+local orderKey = KEYS[2]
+-- 1.3.订单stream
+local streamKey = KEYS[3]
+-- 1.4.秒杀券信息hash：begin、end（毫秒时间戳）、limit（每人限购数量）
+local voucherKey = KEYS[4]
+-- 1.5.准入令牌桶hash：tokens（剩余令牌）、ts（上次补充的毫秒时间戳），每个库存分片一个
+local admitKey = KEYS[5]
+-- 1.6.订单id序列号计数器，按天区分。集群模式下不传，由调用方预先分配序列号
+local counterKey = KEYS[6]
+-- 1.7.优惠券id
 local voucherId = ARGV[1]
--- 1.2.用户id
+-- 1.8.用户id
 local userId = ARGV[2]
--- 1.3.订单id
-local orderId = ARGV[3]
+-- 1.9.订单id的时间戳部分
+local idTime = ARGV[3]
+-- 1.10.库存是否已经从其他分片预扣，1表示已预扣，这里不再检查和扣减库存
+local reserved = ARGV[4]
+-- 1.11.调用方预先分配的序列号，只在没有计数器时使用
+local preallocated = ARGV[5]
+-- 1.12.准入令牌桶每秒补充的令牌数，同时也是桶的容量，0表示不限流
+local rate = tonumber(ARGV[6])
 
--- 2.数据key
--- 2.1.库存key
-local stockKey = 'seckill:stock:' .. voucherId
--- 2.2.订单key
-local orderKey = 'seckill:order:' .. voucherId
-
--- 3.脚本业务
--- 3.1.判断库存是否充足 get stockKey
-if(tonumber(redis.call('get', stockKey)) <= 0) then
-    -- 3.2.库存不足，返回1
-    return 1
+-- 2.脚本业务
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+-- 2.0.准入控制，按经过的时间补充令牌，令牌不足时返回-6。已从其他分片预扣库存的请求在所在分片放行过，不再检查
+if(rate > 0 and reserved ~= '1') then
+    local bucket = redis.call('hmget', admitKey, 'tokens', 'ts')
+    local tokens = tonumber(bucket[1] or rate)
+    local ts = tonumber(bucket[2] or now)
+    if(now > ts) then
+        tokens = math.min(rate, tokens + (now - ts) * rate / 1000)
+    end
+    local admitted = tokens >= 1
+    if(admitted) then
+        tokens = tokens - 1
+    end
+    -- 桶补满之后不再需要保留
+    redis.call('hset', admitKey, 'tokens', tostring(tokens), 'ts', tostring(math.max(now, ts)))
+    redis.call('pexpire', admitKey, 2000)
+    if(not admitted) then
+        return -6
+    end
+end
+-- 2.1.判断秒杀时间 HMGET voucherKey begin end limit。每个秒杀券的信息都已发布且不过期，
+-- 没有信息说明数据库中没有这个秒杀券，不校验时间，由下面的库存检查返回-3
+local voucher = redis.call('hmget', voucherKey, 'begin', 'end', 'limit')
+if(voucher[1] and now < tonumber(voucher[1])) then
+    -- 2.2.秒杀尚未开始，返回-4
+    return -4
+end
+if(voucher[2] and now > tonumber(voucher[2])) then
+    -- 2.3.秒杀已经结束，返回-5
+    return -5
+end
+-- 2.4.判断用户是否还能购买
+local limit = tonumber(voucher[3] or '1')
+if(limit <= 1) then
+    -- 每人限购1件 SISMEMBER orderKey userId
+    if(redis.call('sismember', orderKey, userId) == 1) then
+        -- 存在，说明是重复下单，返回-2
+        return -2
+    end
+elseif(tonumber(redis.call('hget', orderKey, userId) or '0') >= limit) then
+    -- 已达到限购数量，返回-2
+    return -2
+end
+if(reserved ~= '1') then
+    -- 2.5.判断库存是否充足 get stockKey
+    local stock = redis.call('get', stockKey)
+    if(not stock) then
+        -- 2.6.库存key不存在，说明不是秒杀券，返回-3
+        return -3
+    end
+    if(tonumber(stock) <= 0) then
+        -- 2.7.库存不足，返回-1
+        return -1
+    end
+    -- 2.8.扣库存 incrby stockKey -1
+    redis.call('incrby', stockKey, -1)
+end
+-- 2.9.下单（保存用户）
+if(limit <= 1) then
+    redis.call('sadd', orderKey, userId)
+else
+    redis.call('hincrby', orderKey, userId, 1)
 end
--- 3.2.判断用户是否下单 SISMEMBER orderKey userId
-if(redis.call('sismember', orderKey, userId) == 1) then
-    -- 3.3.存在，说明是重复下单，返回2
-    return 2
+-- 2.10.订单id的序列号 incr counterKey，订单id由 时间戳<<32|序列号 拼接而成，
+-- 超出了Lua数字的精度，由调用方和消费者各自拼接
+local idSeq
+if(counterKey) then
+    idSeq = redis.call('incr', counterKey)
+else
+    idSeq = tonumber(preallocated)
 end
--- 3.4.扣库存 incrby stockKey -1
-redis.call('incrby', stockKey, -1)
--- 3.5.下单（保存用户）sadd orderKey userId
-redis.call('sadd', orderKey, userId)
--- 3.6.发送消息到队列中， XADD stream.orders * k1 v1 k2 v2 ...
-redis.call('xadd', 'stream.orders', '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
-return 0
\ No newline at end of file
+-- 2.11.发送消息到订单stream， XADD streamKey * k1 v1 k2 v2 ...
+redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'idTime', idTime, 'idSeq', idSeq)
+-- 2.12.返回序列号
+return idSeq
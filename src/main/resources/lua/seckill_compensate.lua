@@ -0,0 +1,32 @@
+-- 订单最终没有入库时撤销秒杀脚本在Redis中做的修改：释放用户的购买名额并归还一件库存，用户可以重新抢购
+-- 1.参数列表
+-- 1.1.库存key，用户所在的库存分片
+local stockKey = KEYS[1]
+-- 1.2.已下单用户key，每人限购1件时是set，否则是hash
+local orderKey = KEYS[2]
+-- 1.3.秒杀券信息hash
+local voucherKey = KEYS[3]
+-- 1.4.用户id
+local userId = ARGV[1]
+
+-- 2.释放购买名额。名额已经释放过时（消息被重复处理）不再归还库存，返回0
+local limit = tonumber(redis.call('hget', voucherKey, 'limit') or '1')
+if(limit <= 1) then
+    if(redis.call('srem', orderKey, userId) == 0) then
+        return 0
+    end
+else
+    local count = redis.call('hincrby', orderKey, userId, -1)
+    if(count < 0) then
+        redis.call('hdel', orderKey, userId)
+        return 0
+    end
+    if(count == 0) then
+        redis.call('hdel', orderKey, userId)
+    end
+end
+-- 3.归还库存，库存key已不存在时不再创建
+if(redis.call('exists', stockKey) == 1) then
+    redis.call('incrby', stockKey, 1)
+end
+return 1
@@ -0,0 +1,12 @@
+-- 从一个库存分片中预扣一件库存，用于用户所在分片售罄后向相邻分片借库存
+-- 1.库存分片key
+local stockKey = KEYS[1]
+
+-- 2.判断库存是否充足
+if(tonumber(redis.call('get', stockKey) or 0) <= 0) then
+    -- 库存不足，返回1
+    return 1
+end
+-- 3.扣库存
+redis.call('incrby', stockKey, -1)
+return 0
@@ -0,0 +1,18 @@
+-- 把空闲超过 minIdle 的待确认消息转移给当前消费者，可能来自已经下线的消费者
+-- 1.参数列表
+-- 1.1.stream key
+local streamKey = KEYS[1]
+-- 1.2.消费者组
+local group = ARGV[1]
+-- 1.3.认领消息的消费者
+local consumer = ARGV[2]
+-- 1.4.最小空闲时间，单位毫秒
+local minIdle = ARGV[3]
+-- 1.5.扫描起点
+local start = ARGV[4]
+-- 1.6.最多认领的数量
+local count = ARGV[5]
+
+-- 2.XAUTOCLAIM streamKey group consumer minIdle start COUNT count
+-- 返回 [下次扫描起点, [[id, [k1, v1, ...]], ...]]
+return redis.call('xautoclaim', streamKey, group, consumer, minIdle, start, 'COUNT', count)
@@ -0,0 +1,38 @@
+-- 把多次处理失败的消息转入死信stream，并从原stream的待确认列表中移除，返回最近一次失败原因
+-- 1.参数列表
+-- 1.1.原stream key
+local streamKey = KEYS[1]
+-- 1.2.死信stream key
+local deadLetterKey = KEYS[2]
+-- 1.3.失败原因hash key
+local failureKey = KEYS[3]
+-- 1.4.消费者组
+local group = ARGV[1]
+-- 1.5.消息id
+local id = ARGV[2]
+-- 1.6.投递次数
+local deliveries = ARGV[3]
+
+-- 2.读取最近一次失败原因 HGET failureKey streamKey|id
+local field = streamKey .. '|' .. id
+local reason = redis.call('hget', failureKey, field) or 'unknown'
+
+-- 3.原消息还在时，连同来源和失败原因写入死信stream
+local entries = redis.call('xrange', streamKey, id, id)
+if(#entries > 0) then
+    local fields = entries[1][2]
+    table.insert(fields, 'sourceStream')
+    table.insert(fields, streamKey)
+    table.insert(fields, 'sourceId')
+    table.insert(fields, id)
+    table.insert(fields, 'deliveries')
+    table.insert(fields, deliveries)
+    table.insert(fields, 'reason')
+    table.insert(fields, reason)
+    redis.call('xadd', deadLetterKey, '*', unpack(fields))
+end
+
+-- 4.确认消息并删除失败原因
+redis.call('xack', streamKey, group, id)
+redis.call('hdel', failureKey, field)
+return reason
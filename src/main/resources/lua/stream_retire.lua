@@ -0,0 +1,52 @@
+-- 判断秒杀券库存分片的订单stream是否可以停止消费：秒杀已经结束，并且消息都已投递和确认
+-- 1.参数列表
+-- 1.1.订单stream key
+local streamKey = KEYS[1]
+-- 1.2.秒杀券信息hash，和stream在同一个slot
+local voucherKey = KEYS[2]
+-- 1.3.消费者组
+local group = ARGV[1]
+
+-- 2.秒杀已经结束，秒杀脚本不会再写入新的消息。没有结束时间的秒杀券一直保留
+local endTime = redis.call('hget', voucherKey, 'end')
+if(not endTime) then
+    return 0
+end
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+if(now <= tonumber(endTime)) then
+    return 0
+end
+-- 3.stream已被删除，没有可消费的消息
+if(redis.call('exists', streamKey) == 0) then
+    return 1
+end
+-- 4.没有待确认的消息 XPENDING streamKey group
+if(redis.call('xpending', streamKey, group)[1] > 0) then
+    return 0
+end
+-- 5.最后投递的消息就是最后写入的消息 XINFO GROUPS streamKey / XINFO STREAM streamKey
+local lastDelivered
+for _, info in ipairs(redis.call('xinfo', 'groups', streamKey)) do
+    local name, delivered
+    for i = 1, #info, 2 do
+        if(info[i] == 'name') then
+            name = info[i + 1]
+        elseif(info[i] == 'last-delivered-id') then
+            delivered = info[i + 1]
+        end
+    end
+    if(name == group) then
+        lastDelivered = delivered
+    end
+end
+if(not lastDelivered) then
+    return 0
+end
+local stream = redis.call('xinfo', 'stream', streamKey)
+for i = 1, #stream, 2 do
+    if(stream[i] == 'last-generated-id') then
+        return stream[i + 1] == lastDelivered and 1 or 0
+    end
+end
+return 0
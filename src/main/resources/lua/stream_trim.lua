@@ -0,0 +1,58 @@
+-- 按消费者组的确认位置裁剪订单stream，并返回stream的状态
+-- 1.参数列表
+-- 1.1.stream key
+local streamKey = KEYS[1]
+-- 1.2.消费者组
+local group = ARGV[1]
+-- 1.3.已确认的消息至少保留到这个id，用于排查问题
+local keepAfter = ARGV[2]
+
+-- 2.消费者组的位置
+-- 2.1.待确认消息 XPENDING streamKey group，返回 [数量, 最小id, 最大id, 各消费者]
+local pending = redis.call('xpending', streamKey, group)
+-- 2.2.最后投递的消息 XINFO GROUPS streamKey
+local lastDelivered = '0-0'
+for _, info in ipairs(redis.call('xinfo', 'groups', streamKey)) do
+    local name, delivered
+    for i = 1, #info, 2 do
+        if(info[i] == 'name') then
+            name = info[i + 1]
+        elseif(info[i] == 'last-delivered-id') then
+            delivered = info[i + 1]
+        end
+    end
+    if(name == group) then
+        lastDelivered = delivered
+    end
+end
+
+-- 3.比较两个消息id
+local function less(a, b)
+    local ams, aseq = string.match(a, '(%d+)-(%d+)')
+    local bms, bseq = string.match(b, '(%d+)-(%d+)')
+    if(ams ~= bms) then
+        return tonumber(ams) < tonumber(bms)
+    end
+    return tonumber(aseq) < tonumber(bseq)
+end
+
+-- 4.最早的待确认消息之前、最后投递消息及之前的消息都已确认，可以删除
+local minId = lastDelivered
+if(pending[1] > 0 and less(pending[2], minId)) then
+    minId = pending[2]
+end
+if(less(keepAfter, minId)) then
+    minId = keepAfter
+end
+-- 5.近似裁剪，只删除整个宏节点，开销很小 XTRIM streamKey MINID ~ minId
+local trimmed = redis.call('xtrim', streamKey, 'MINID', '~', minId)
+
+-- 6.最新的消息
+local last = redis.call('xrevrange', streamKey, '+', '-', 'COUNT', 1)
+local lastId = '0-0'
+if(#last > 0) then
+    lastId = last[1][1]
+end
+
+-- 7.返回 [裁剪数量, stream长度, 待确认数量, 最早的待确认id, 最后投递的id, 最新的id]
+return {trimmed, redis.call('xlen', streamKey), pending[1], pending[2] or '0-0', lastDelivered, lastId}
@@ -0,0 +1,58 @@
+package com.hmdp;
+
+import lombok.val;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.data.redis.connection.RedisPassword;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.utility.DockerImageName;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 需要真实Redis的测试使用的连接。默认用Testcontainers启动一个 redis:6.2 容器，所有测试类共用，
+ * JVM退出后由Testcontainers清理；也可以用 -Dhmdp.test.redis.host/port/password 指定已有的Redis。
+ * 脚本用到了 XAUTOCLAIM、XTRIM MINID，Redis版本不能低于6.2。Redis不可用时测试失败，不会被跳过
+ */
+public final class RedisTestSupport {
+
+    private static final DockerImageName IMAGE = DockerImageName.parse("redis:6.2");
+
+    private static final int PORT = 6379;
+
+    private static GenericContainer<?> container;
+
+    private RedisTestSupport() {
+    }
+
+    public static synchronized @NotNull LettuceConnectionFactory connect() {
+        val host = System.getProperty("hmdp.test.redis.host");
+        RedisStandaloneConfiguration config;
+        if (host != null) {
+            config = new RedisStandaloneConfiguration(host, Integer.getInteger("hmdp.test.redis.port", PORT));
+            val password = System.getProperty("hmdp.test.redis.password");
+            if (password != null) {
+                config.setPassword(RedisPassword.of(password));
+            }
+        } else {
+            if (container == null) {
+                container = new GenericContainer<>(IMAGE).withExposedPorts(PORT);
+                container.start();
+            }
+            config = new RedisStandaloneConfiguration(container.getHost(), container.getMappedPort(PORT));
+        }
+        val factory = new LettuceConnectionFactory(config);
+        factory.afterPropertiesSet();
+        return factory;
+    }
+
+    public static @NotNull StringRedisTemplate template(@NotNull LettuceConnectionFactory factory) {
+        val template = new StringRedisTemplate(factory);
+        template.afterPropertiesSet();
+        assertEquals("PONG", template.execute((RedisCallback<String>) connection -> connection.ping()), "Redis不可用");
+        return template;
+    }
+}
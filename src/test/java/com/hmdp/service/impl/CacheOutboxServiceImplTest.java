@@ -0,0 +1,133 @@
+package com.hmdp.service.impl;
+
+import com.baomidou.mybatisplus.core.MybatisConfiguration;
+import com.baomidou.mybatisplus.core.conditions.AbstractWrapper;
+import com.baomidou.mybatisplus.core.conditions.Wrapper;
+import com.baomidou.mybatisplus.core.metadata.TableInfoHelper;
+import com.hmdp.config.CacheProperties;
+import com.hmdp.entity.CacheOutbox;
+import com.hmdp.mapper.CacheOutboxMapper;
+import com.hmdp.utils.CacheClient;
+import lombok.val;
+import org.apache.ibatis.builder.MapperBuilderAssistant;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 发件箱中继：提交后才删除缓存、延迟双删后标记为已发布、删除失败时按退避重试。
+ * 数据库由mock的Mapper代替，只检查中继发出的更新
+ */
+class CacheOutboxServiceImplTest {
+
+    private static final String KEY = "test:cache:shop:1";
+
+    private static final Set<String> KEYS = Collections.singleton(KEY);
+
+    private CacheClient cacheClient;
+
+    private CacheOutboxMapper mapper;
+
+    private CacheOutboxServiceImpl outboxService;
+
+    @BeforeAll
+    static void initTableInfo() {
+        // lambdaUpdate 按实体的表信息解析列名，没有Spring上下文时手动初始化
+        TableInfoHelper.initTableInfo(new MapperBuilderAssistant(new MybatisConfiguration(), ""), CacheOutbox.class);
+    }
+
+    @BeforeEach
+    void setUp() {
+        val properties = new CacheProperties();
+        properties.getOutbox().setDelayedDelete(Duration.ofMillis(50));
+        cacheClient = mock(CacheClient.class);
+        mapper = mock(CacheOutboxMapper.class);
+        outboxService = new CacheOutboxServiceImpl();
+        ReflectionTestUtils.setField(outboxService, "baseMapper", mapper);
+        ReflectionTestUtils.setField(outboxService, "cacheClient", cacheClient);
+        ReflectionTestUtils.setField(outboxService, "cacheProperties", properties);
+        ReflectionTestUtils.invokeMethod(outboxService, "init");
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(outboxService, "destroy");
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private String lastUpdateSql() {
+        val captor = ArgumentCaptor.forClass(Wrapper.class);
+        verify(mapper, timeout(1000)).update(isNull(), captor.capture());
+        return ((AbstractWrapper<CacheOutbox, ?, ?>) captor.getValue()).getSqlSet();
+    }
+
+    @Test
+    void withoutTransactionDeletesTwiceThenMarksPublished() {
+        outboxService.invalidate(KEY);
+        verify(mapper).insert(any(CacheOutbox.class));
+        // 立即删除一次，延迟后再删一次
+        verify(cacheClient, timeout(1000).times(2)).delete(KEYS);
+        assertTrue(lastUpdateSql().startsWith("status="));
+    }
+
+    @Test
+    void waitsForCommit() {
+        TransactionSynchronizationManager.initSynchronization();
+        outboxService.invalidate(KEY);
+        verify(cacheClient, after(200).never()).delete(anyCollection());
+
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        verify(cacheClient, timeout(1000).times(2)).delete(KEYS);
+    }
+
+    @Test
+    void rollbackNeverDeletes() {
+        TransactionSynchronizationManager.initSynchronization();
+        outboxService.invalidate(KEY);
+        // 回滚时不会调用 afterCommit
+        TransactionSynchronizationManager.clearSynchronization();
+        verify(cacheClient, after(200).never()).delete(anyCollection());
+    }
+
+    @Test
+    void failedDeleteSchedulesRetry() {
+        doThrow(new IllegalStateException("redis down")).when(cacheClient).delete(anyCollection());
+        outboxService.invalidate(KEY);
+        val sql = lastUpdateSql();
+        assertTrue(sql.contains("retry_count="));
+        assertTrue(sql.contains("next_retry_time="));
+        // 第一次删除失败，不再安排延迟删除，由补发任务重试
+        verify(cacheClient, after(200).times(1)).delete(anyCollection());
+    }
+
+    @Test
+    void republishDuePublishesPendingEvents() {
+        when(mapper.selectList(any())).thenReturn(Collections.singletonList(
+                new CacheOutbox().setId(1L).setCacheKey(KEY).setStatus(CacheOutbox.STATUS_PENDING).setRetryCount(0)));
+        outboxService.republishDue();
+        verify(cacheClient, timeout(1000).times(2)).delete(KEYS);
+    }
+}
@@ -0,0 +1,272 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.RedisTestSupport;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.RedisScripts;
+import com.hmdp.utils.SeckillAdmission;
+import com.hmdp.utils.SeckillKeys;
+import com.hmdp.utils.SeckillSoldOutFlags;
+import com.hmdp.utils.UserHolder;
+import lombok.val;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SHARDS_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 秒杀入口在真实Redis上的行为：库存分片借库存和归还、seckill.lua 的限购和时间窗口。
+ * 使用集群模式的key，测试数据都带有测试秒杀券的hash tag，不会碰到其他秒杀券的数据
+ */
+class VoucherOrderServiceImplTest {
+
+    private static final Long VOUCHER_ID = 990_000_001L;
+
+    private static final int SHARDS = 2;
+
+    /**
+     * 所在分片分别为0和1的用户
+     */
+    private static final Long USER_ON_SHARD_0 = 10L;
+    private static final Long USER_ON_SHARD_1 = 11L;
+
+    private static LettuceConnectionFactory factory;
+
+    private static HookedTemplate stringRedisTemplate;
+
+    private SeckillKeys seckillKeys;
+
+    private SeckillSoldOutFlags soldOutFlags;
+
+    private VoucherOrderServiceImpl voucherOrderService;
+
+    /**
+     * 预扣相邻分片库存之后执行，用来模拟同一个用户的并发请求
+     */
+    private static class HookedTemplate extends StringRedisTemplate {
+        private RedisScript<?> reserveScript;
+        private Runnable afterReserve;
+
+        @Override
+        public <T> T execute(RedisScript<T> script, List<String> keys, Object... args) {
+            val result = super.execute(script, keys, args);
+            if (script == reserveScript && afterReserve != null) {
+                afterReserve.run();
+            }
+            return result;
+        }
+    }
+
+    @BeforeAll
+    static void connect() {
+        factory = RedisTestSupport.connect();
+        // 先确认Redis可用
+        RedisTestSupport.template(factory);
+        stringRedisTemplate = new HookedTemplate();
+        stringRedisTemplate.setConnectionFactory(factory);
+        stringRedisTemplate.afterPropertiesSet();
+    }
+
+    @AfterAll
+    static void disconnect() {
+        factory.destroy();
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        val properties = new SeckillProperties();
+        properties.getCluster().setEnabled(true);
+        seckillKeys = new SeckillKeys(properties);
+        val redisScripts = new RedisScripts(stringRedisTemplate);
+        stringRedisTemplate.reserveScript = redisScripts.get("seckill_reserve", Long.class);
+        stringRedisTemplate.afterReserve = null;
+
+        soldOutFlags = mock(SeckillSoldOutFlags.class);
+        val admission = mock(SeckillAdmission.class);
+        when(admission.tryAcquire(any(), anyInt())).thenReturn(true);
+
+        voucherOrderService = new VoucherOrderServiceImpl();
+        ReflectionTestUtils.setField(voucherOrderService, "redisScripts", redisScripts);
+        ReflectionTestUtils.setField(voucherOrderService, "redisIdWorker", new RedisIdWorker(stringRedisTemplate));
+        ReflectionTestUtils.setField(voucherOrderService, "seckillKeys", seckillKeys);
+        ReflectionTestUtils.setField(voucherOrderService, "seckillProperties", properties);
+        ReflectionTestUtils.setField(voucherOrderService, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(voucherOrderService, "cacheClient", mock(CacheClient.class));
+        ReflectionTestUtils.setField(voucherOrderService, "soldOutFlags", soldOutFlags);
+        ReflectionTestUtils.setField(voucherOrderService, "seckillAdmission", admission);
+        clean();
+    }
+
+    @AfterEach
+    void tearDown() {
+        UserHolder.removeUser();
+        clean();
+    }
+
+    private void clean() {
+        val keys = new ArrayList<String>();
+        keys.add(SECKILL_SHARDS_KEY + VOUCHER_ID);
+        for (int i = 0; i < SHARDS; i++) {
+            keys.add(seckillKeys.stockKey(VOUCHER_ID, i));
+            keys.add(seckillKeys.orderKey(VOUCHER_ID, i));
+            keys.add(seckillKeys.admitKey(VOUCHER_ID, i));
+        }
+        keys.addAll(seckillKeys.voucherKeys(VOUCHER_ID, SHARDS));
+        keys.addAll(seckillKeys.orderStreamKeys(VOUCHER_ID, SHARDS));
+        stringRedisTemplate.delete(keys);
+    }
+
+    /**
+     * 按 addSeckillVoucher 和 publishToRedis 的格式写入分片库存和秒杀券信息
+     */
+    private void publish(int stock0, int stock1, int limit, long begin, long end) {
+        stringRedisTemplate.opsForValue().set(SECKILL_SHARDS_KEY + VOUCHER_ID, Integer.toString(SHARDS));
+        stringRedisTemplate.opsForValue().set(seckillKeys.stockKey(VOUCHER_ID, 0), Integer.toString(stock0));
+        stringRedisTemplate.opsForValue().set(seckillKeys.stockKey(VOUCHER_ID, 1), Integer.toString(stock1));
+        val fields = new HashMap<String, String>();
+        fields.put("limit", Integer.toString(limit));
+        fields.put("begin", Long.toString(begin));
+        fields.put("end", Long.toString(end));
+        for (val key : seckillKeys.voucherKeys(VOUCHER_ID, SHARDS)) {
+            stringRedisTemplate.opsForHash().putAll(key, fields);
+        }
+    }
+
+    private void publish(int stock0, int stock1, int limit) {
+        val now = System.currentTimeMillis();
+        publish(stock0, stock1, limit, now - 3_600_000, now + 3_600_000);
+    }
+
+    private Result seckill(@NotNull Long userId) {
+        UserHolder.saveUser(new UserDTO(userId, "user-" + userId, null));
+        return voucherOrderService.seckillVoucher(VOUCHER_ID);
+    }
+
+    private long stock(int shard) {
+        return Long.parseLong(stringRedisTemplate.opsForValue().get(seckillKeys.stockKey(VOUCHER_ID, shard)));
+    }
+
+    private long streamLength(int shard) {
+        val size = stringRedisTemplate.opsForStream().size(seckillKeys.orderStreamKey(VOUCHER_ID, shard, 0L));
+        return size == null ? 0 : size;
+    }
+
+    @Test
+    void soldOutAcrossAllShards() {
+        publish(0, 0, 1);
+        val result = seckill(USER_ON_SHARD_0);
+        assertFalse(result.getSuccess());
+        assertEquals("秒杀失败", result.getErrorMsg());
+        verify(soldOutFlags).markSoldOut(VOUCHER_ID);
+        assertEquals(0, stock(0));
+        assertEquals(0, stock(1));
+        assertFalse(stringRedisTemplate.opsForSet().isMember(seckillKeys.orderKey(VOUCHER_ID, 0), USER_ON_SHARD_0.toString()));
+    }
+
+    @Test
+    void emptyHomeShardReservesFromNeighbour() {
+        publish(0, 1, 1);
+        val result = seckill(USER_ON_SHARD_0);
+        assertTrue(result.getSuccess());
+        assertEquals(0, stock(0));
+        assertEquals(0, stock(1));
+        // 名额和订单消息都记在所在分片
+        assertTrue(stringRedisTemplate.opsForSet().isMember(seckillKeys.orderKey(VOUCHER_ID, 0), USER_ON_SHARD_0.toString()));
+        assertEquals(1, streamLength(0));
+        assertEquals(0, streamLength(1));
+    }
+
+    @Test
+    void duplicateAfterReserveReturnsUnit() {
+        publish(0, 1, 1);
+        // 预扣之后，同一个用户的另一个请求先在所在分片下单成功
+        stringRedisTemplate.afterReserve = () -> stringRedisTemplate.opsForSet()
+                .add(seckillKeys.orderKey(VOUCHER_ID, 0), USER_ON_SHARD_0.toString());
+        val result = seckill(USER_ON_SHARD_0);
+        assertFalse(result.getSuccess());
+        assertEquals("秒杀失败", result.getErrorMsg());
+        // 预扣的库存归还给相邻分片，也不算售罄
+        assertEquals(1, stock(1));
+        assertEquals(0, stock(0));
+        assertEquals(0, streamLength(0));
+        verify(soldOutFlags, never()).markSoldOut(any());
+    }
+
+    @Test
+    void perUserLimitAboveOne() {
+        publish(5, 5, 2);
+        assertTrue(seckill(USER_ON_SHARD_1).getSuccess());
+        assertTrue(seckill(USER_ON_SHARD_1).getSuccess());
+        // 第三次超过限购数量，返回-2
+        val result = seckill(USER_ON_SHARD_1);
+        assertFalse(result.getSuccess());
+        assertEquals("秒杀失败", result.getErrorMsg());
+        assertEquals("2", stringRedisTemplate.opsForHash().get(seckillKeys.orderKey(VOUCHER_ID, 1), USER_ON_SHARD_1.toString()));
+        assertEquals(3, stock(1));
+        assertEquals(2, streamLength(1));
+        verify(soldOutFlags, never()).markSoldOut(any());
+    }
+
+    @Test
+    void notStartedWithLimitAboveOne() {
+        val now = System.currentTimeMillis();
+        publish(5, 5, 2, now + 3_600_000, now + 7_200_000);
+        val result = seckill(USER_ON_SHARD_0);
+        assertFalse(result.getSuccess());
+        assertEquals("秒杀尚未开始", result.getErrorMsg());
+        assertEquals(5, stock(0));
+        assertFalse(stringRedisTemplate.opsForHash().hasKey(seckillKeys.orderKey(VOUCHER_ID, 0), USER_ON_SHARD_0.toString()));
+    }
+
+    @Test
+    void endedWithLimitAboveOne() {
+        val now = System.currentTimeMillis();
+        publish(5, 5, 2, now - 7_200_000, now - 3_600_000);
+        val result = seckill(USER_ON_SHARD_0);
+        assertFalse(result.getSuccess());
+        assertEquals("秒杀已经结束", result.getErrorMsg());
+        assertEquals(5, stock(0));
+        assertEquals(0, streamLength(0));
+    }
+
+    @Test
+    void endedAfterReserveReturnsUnit() {
+        val now = System.currentTimeMillis();
+        publish(0, 1, 2);
+        // 预扣之后秒杀结束
+        stringRedisTemplate.afterReserve = () -> {
+            for (val key : seckillKeys.voucherKeys(VOUCHER_ID, SHARDS)) {
+                stringRedisTemplate.opsForHash().put(key, "end", Long.toString(now - 1));
+            }
+        };
+        val result = seckill(USER_ON_SHARD_0);
+        assertFalse(result.getSuccess());
+        assertEquals("秒杀已经结束", result.getErrorMsg());
+        assertEquals(1, stock(1));
+    }
+}
@@ -0,0 +1,121 @@
+package com.hmdp.utils;
+
+import com.hmdp.RedisTestSupport;
+import com.hmdp.config.CacheProperties;
+import com.hmdp.entity.Shop;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.val;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 逻辑过期查询在Redis未命中时必须回源数据库
+ */
+class CacheClientTest {
+
+    private static final String PREFIX = "test:cache:shop:";
+
+    private static final Long ID = 1L;
+
+    private static LettuceConnectionFactory factory;
+
+    private static StringRedisTemplate stringRedisTemplate;
+
+    private CacheClient cacheClient;
+
+    private final AtomicInteger dbCalls = new AtomicInteger();
+
+    private volatile String dbName = "shop-1";
+
+    private final Function<Long, Shop> dbFallback = id -> {
+        dbCalls.incrementAndGet();
+        return dbName == null ? null : new Shop().setId(id).setName(dbName);
+    };
+
+    @BeforeAll
+    static void connect() {
+        factory = RedisTestSupport.connect();
+        stringRedisTemplate = RedisTestSupport.template(factory);
+    }
+
+    @AfterAll
+    static void disconnect() {
+        factory.destroy();
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        val properties = new CacheProperties();
+        properties.getLocal().setEnabled(true);
+        val metrics = new CacheMetrics(new SimpleMeterRegistry());
+        cacheClient = new CacheClient(
+                stringRedisTemplate,
+                properties,
+                new CacheValueCodec(properties, Collections.singletonList(new ShopCodec())),
+                new LocalCache(properties, metrics),
+                new CacheExpiry(properties, metrics),
+                new CacheRebuildScheduler(properties, metrics),
+                metrics,
+                factory,
+                new RedisScripts(stringRedisTemplate)
+        );
+        stringRedisTemplate.delete(PREFIX + ID);
+    }
+
+    @AfterEach
+    void tearDown() {
+        stringRedisTemplate.delete(PREFIX + ID);
+    }
+
+    private Shop query() {
+        return cacheClient.queryWithLogicalExpire(PREFIX, ID, Shop.class, dbFallback, 30L, TimeUnit.MINUTES);
+    }
+
+    @Test
+    void missLoadsFromDatabaseAndWritesBack() {
+        val shop = query();
+        assertNotNull(shop);
+        assertEquals("shop-1", shop.getName());
+        assertEquals(1, dbCalls.get());
+        assertTrue(Boolean.TRUE.equals(stringRedisTemplate.hasKey(PREFIX + ID)));
+        // 已写回Redis和一级缓存，不再查库
+        assertEquals("shop-1", query().getName());
+        assertEquals(1, dbCalls.get());
+    }
+
+    @Test
+    void deletedKeyIsReloadedFromDatabase() {
+        query();
+        // 更新店铺后删除缓存，下一次查询读到新数据
+        dbName = "shop-1-updated";
+        cacheClient.delete(PREFIX + ID);
+        val shop = query();
+        assertNotNull(shop);
+        assertEquals("shop-1-updated", shop.getName());
+        assertEquals(2, dbCalls.get());
+    }
+
+    @Test
+    void missingRowIsCachedAsNull() {
+        dbName = null;
+        assertNull(query());
+        assertNull(query());
+        assertEquals(1, dbCalls.get());
+    }
+}
@@ -0,0 +1,110 @@
+package com.hmdp.utils;
+
+import com.hmdp.RedisTestSupport;
+import lombok.val;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * seckill_compensate.lua：释放用户名额并归还一件库存，重复执行不会多还库存
+ */
+class SeckillCompensateScriptTest {
+
+    private static final String STOCK_KEY = "test:lua:stock";
+    private static final String ORDER_KEY = "test:lua:order";
+    private static final String VOUCHER_KEY = "test:lua:voucher";
+
+    private static final List<String> KEYS = Arrays.asList(STOCK_KEY, ORDER_KEY, VOUCHER_KEY);
+
+    private static final String USER_ID = "10";
+
+    private static LettuceConnectionFactory factory;
+
+    private static StringRedisTemplate stringRedisTemplate;
+
+    private RedisScript<Long> script;
+
+    @BeforeAll
+    static void connect() {
+        factory = RedisTestSupport.connect();
+        stringRedisTemplate = RedisTestSupport.template(factory);
+    }
+
+    @AfterAll
+    static void disconnect() {
+        factory.destroy();
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        script = new RedisScripts(stringRedisTemplate).get("seckill_compensate", Long.class);
+        stringRedisTemplate.delete(KEYS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        stringRedisTemplate.delete(KEYS);
+    }
+
+    private long compensate() {
+        return stringRedisTemplate.execute(script, KEYS, USER_ID);
+    }
+
+    private String stock() {
+        return stringRedisTemplate.opsForValue().get(STOCK_KEY);
+    }
+
+    @Test
+    void limitOneReleasesSlotAndReturnsStockOnce() {
+        stringRedisTemplate.opsForValue().set(STOCK_KEY, "4");
+        stringRedisTemplate.opsForSet().add(ORDER_KEY, USER_ID);
+
+        assertEquals(1, compensate());
+        assertEquals("5", stock());
+        assertFalse(stringRedisTemplate.opsForSet().isMember(ORDER_KEY, USER_ID));
+        // 消息被重复处理时不再归还库存
+        assertEquals(0, compensate());
+        assertEquals("5", stock());
+    }
+
+    @Test
+    void limitAboveOneDecrementsPurchasedCount() {
+        stringRedisTemplate.opsForValue().set(STOCK_KEY, "0");
+        stringRedisTemplate.opsForHash().put(VOUCHER_KEY, "limit", "3");
+        stringRedisTemplate.opsForHash().put(ORDER_KEY, USER_ID, "2");
+
+        assertEquals(1, compensate());
+        assertEquals("1", stringRedisTemplate.opsForHash().get(ORDER_KEY, USER_ID));
+        assertEquals("1", stock());
+        // 已购数量归零时删除字段
+        assertEquals(1, compensate());
+        assertFalse(stringRedisTemplate.opsForHash().hasKey(ORDER_KEY, USER_ID));
+        assertEquals("2", stock());
+        // 没有可释放的名额，不留下负数
+        assertEquals(0, compensate());
+        assertFalse(stringRedisTemplate.opsForHash().hasKey(ORDER_KEY, USER_ID));
+        assertEquals("2", stock());
+    }
+
+    @Test
+    void missingStockKeyIsNotRecreated() {
+        stringRedisTemplate.opsForSet().add(ORDER_KEY, USER_ID);
+
+        assertEquals(1, compensate());
+        assertNull(stock());
+    }
+}
@@ -0,0 +1,74 @@
+package com.hmdp.utils;
+
+import com.hmdp.RedisTestSupport;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * seckill_reserve.lua：从相邻分片预扣一件库存，库存不足时不扣减
+ */
+class SeckillReserveScriptTest {
+
+    private static final String STOCK_KEY = "test:lua:stock";
+
+    private static LettuceConnectionFactory factory;
+
+    private static StringRedisTemplate stringRedisTemplate;
+
+    private RedisScript<Long> script;
+
+    @BeforeAll
+    static void connect() {
+        factory = RedisTestSupport.connect();
+        stringRedisTemplate = RedisTestSupport.template(factory);
+    }
+
+    @AfterAll
+    static void disconnect() {
+        factory.destroy();
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        script = new RedisScripts(stringRedisTemplate).get("seckill_reserve", Long.class);
+        stringRedisTemplate.delete(STOCK_KEY);
+    }
+
+    @AfterEach
+    void tearDown() {
+        stringRedisTemplate.delete(STOCK_KEY);
+    }
+
+    private long reserve() {
+        return stringRedisTemplate.execute(script, Collections.singletonList(STOCK_KEY));
+    }
+
+    @Test
+    void reservesUntilEmpty() {
+        stringRedisTemplate.opsForValue().set(STOCK_KEY, "2");
+        assertEquals(0, reserve());
+        assertEquals(0, reserve());
+        assertEquals("0", stringRedisTemplate.opsForValue().get(STOCK_KEY));
+        // 售罄后返回1，库存不会变成负数
+        assertEquals(1, reserve());
+        assertEquals("0", stringRedisTemplate.opsForValue().get(STOCK_KEY));
+    }
+
+    @Test
+    void missingShardIsEmpty() {
+        assertEquals(1, reserve());
+        assertNull(stringRedisTemplate.opsForValue().get(STOCK_KEY));
+    }
+}
@@ -0,0 +1,233 @@
+package com.hmdp.utils;
+
+import com.hmdp.RedisTestSupport;
+import lombok.val;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * seckill.lua 的各个分支：分片令牌桶准入、扣库存、记录用户、生成序列号并写入订单stream，以及各种失败返回值。
+ * 秒杀时间和限购数量的分支由 VoucherOrderServiceImplTest 覆盖
+ */
+class SeckillScriptTest {
+
+    private static final String STOCK_KEY = "test:lua:stock";
+    private static final String ORDER_KEY = "test:lua:order";
+    private static final String STREAM_KEY = "test:lua:stream";
+    private static final String VOUCHER_KEY = "test:lua:voucher";
+    private static final String ADMIT_KEY = "test:lua:admit";
+    private static final String COUNTER_KEY = "test:lua:counter";
+
+    private static final List<String> KEYS =
+            Arrays.asList(STOCK_KEY, ORDER_KEY, STREAM_KEY, VOUCHER_KEY, ADMIT_KEY, COUNTER_KEY);
+
+    private static final String VOUCHER_ID = "1";
+    private static final String ID_TIME = "12345";
+    private static final String PREALLOCATED = "77";
+
+    private static final long STOCK_EMPTY = -1;
+    private static final long DUPLICATE_ORDER = -2;
+    private static final long NOT_SECKILL = -3;
+    private static final long NOT_ADMITTED = -6;
+
+    /**
+     * 远在未来的补充时间，令牌桶不会补充令牌
+     */
+    private static final String NEVER_REFILLED = "99999999999999";
+
+    private static LettuceConnectionFactory factory;
+
+    private static StringRedisTemplate stringRedisTemplate;
+
+    private RedisScript<Long> script;
+
+    @BeforeAll
+    static void connect() {
+        factory = RedisTestSupport.connect();
+        stringRedisTemplate = RedisTestSupport.template(factory);
+    }
+
+    @AfterAll
+    static void disconnect() {
+        factory.destroy();
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        script = new RedisScripts(stringRedisTemplate).get("seckill", Long.class);
+        stringRedisTemplate.delete(KEYS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        stringRedisTemplate.delete(KEYS);
+    }
+
+    /**
+     * @param counter  是否传入序列号计数器，不传时使用预先分配的序列号
+     * @param reserved 库存是否已从其他分片预扣
+     * @param rate     准入令牌桶的速率，0表示不限流
+     */
+    private long seckill(@NotNull String userId, boolean counter, boolean reserved, double rate) {
+        val keys = new ArrayList<String>(KEYS);
+        if (!counter) {
+            keys.remove(COUNTER_KEY);
+        }
+        return stringRedisTemplate.execute(
+                script,
+                keys,
+                VOUCHER_ID,
+                userId,
+                ID_TIME,
+                reserved ? "1" : "0",
+                PREALLOCATED,
+                Double.toString(rate)
+        );
+    }
+
+    private long seckill(@NotNull String userId) {
+        return seckill(userId, true, false, 0);
+    }
+
+    private String stock() {
+        return stringRedisTemplate.opsForValue().get(STOCK_KEY);
+    }
+
+    private long streamLength() {
+        val size = stringRedisTemplate.opsForStream().size(STREAM_KEY);
+        return size == null ? 0 : size;
+    }
+
+    @Test
+    void successWritesOrderMessage() {
+        stringRedisTemplate.opsForValue().set(STOCK_KEY, "2");
+
+        assertEquals(1, seckill("10"));
+        assertEquals("1", stock());
+        assertTrue(stringRedisTemplate.opsForSet().isMember(ORDER_KEY, "10"));
+        val records = stringRedisTemplate.opsForStream().range(STREAM_KEY, Range.unbounded());
+        assertEquals(1, records.size());
+        val value = records.get(0).getValue();
+        assertEquals("10", value.get("userId"));
+        assertEquals(VOUCHER_ID, value.get("voucherId"));
+        assertEquals(ID_TIME, value.get("idTime"));
+        assertEquals("1", value.get("idSeq"));
+        // 序列号由计数器递增
+        assertEquals(2, seckill("11"));
+        assertEquals("0", stock());
+    }
+
+    @Test
+    void usesPreallocatedSequenceWithoutCounter() {
+        stringRedisTemplate.opsForValue().set(STOCK_KEY, "1");
+
+        assertEquals(Long.parseLong(PREALLOCATED), seckill("10", false, false, 0));
+        assertFalse(stringRedisTemplate.hasKey(COUNTER_KEY));
+        val records = stringRedisTemplate.opsForStream().range(STREAM_KEY, Range.unbounded());
+        assertEquals(PREALLOCATED, records.get(0).getValue().get("idSeq"));
+    }
+
+    @Test
+    void missingStockIsNotSeckill() {
+        assertEquals(NOT_SECKILL, seckill("10"));
+        assertNull(stock());
+        assertFalse(stringRedisTemplate.hasKey(ORDER_KEY));
+        assertEquals(0, streamLength());
+    }
+
+    @Test
+    void emptyStockFails() {
+        stringRedisTemplate.opsForValue().set(STOCK_KEY, "0");
+
+        assertEquals(STOCK_EMPTY, seckill("10"));
+        assertEquals("0", stock());
+        assertFalse(stringRedisTemplate.hasKey(ORDER_KEY));
+        assertEquals(0, streamLength());
+    }
+
+    @Test
+    void duplicateOrderFails() {
+        stringRedisTemplate.opsForValue().set(STOCK_KEY, "2");
+
+        assertEquals(1, seckill("10"));
+        assertEquals(DUPLICATE_ORDER, seckill("10"));
+        assertEquals("1", stock());
+        assertEquals(1, streamLength());
+    }
+
+    @Test
+    void reservedSkipsStock() {
+        // 库存已从其他分片预扣，所在分片售罄也能下单，且不再扣减
+        stringRedisTemplate.opsForValue().set(STOCK_KEY, "0");
+
+        assertEquals(1, seckill("10", true, true, 0));
+        assertEquals("0", stock());
+        assertTrue(stringRedisTemplate.opsForSet().isMember(ORDER_KEY, "10"));
+        assertEquals(1, streamLength());
+    }
+
+    private void emptyBucket() {
+        stringRedisTemplate.opsForHash().put(ADMIT_KEY, "tokens", "0");
+        stringRedisTemplate.opsForHash().put(ADMIT_KEY, "ts", NEVER_REFILLED);
+    }
+
+    @Test
+    void bucketRejectsBeforeTouchingStock() {
+        stringRedisTemplate.opsForValue().set(STOCK_KEY, "5");
+
+        // 桶初始是满的，容量等于每秒放行数
+        assertEquals(1, seckill("10", true, false, 1));
+        assertEquals(NOT_ADMITTED, seckill("11", true, false, 1));
+        assertEquals("4", stock());
+        assertFalse(stringRedisTemplate.opsForSet().isMember(ORDER_KEY, "11"));
+        assertEquals(1, streamLength());
+        // 令牌桶很快过期，不会长期占用内存
+        val ttl = stringRedisTemplate.getExpire(ADMIT_KEY);
+        assertTrue(ttl != null && ttl > 0 && ttl <= 2, "ttl=" + ttl);
+    }
+
+    @Test
+    void bucketRefillsWithElapsedTime() {
+        stringRedisTemplate.opsForValue().set(STOCK_KEY, "5");
+        stringRedisTemplate.opsForHash().put(ADMIT_KEY, "tokens", "0");
+        stringRedisTemplate.opsForHash().put(ADMIT_KEY, "ts", "0");
+
+        assertEquals(1, seckill("10", true, false, 1));
+    }
+
+    @Test
+    void reservedBypassesBucket() {
+        // 预扣相邻分片库存的请求已经在所在分片放行过
+        emptyBucket();
+
+        assertEquals(1, seckill("10", true, true, 1));
+        assertEquals(NOT_ADMITTED, seckill("11", true, false, 1));
+    }
+
+    @Test
+    void zeroRateSkipsBucket() {
+        stringRedisTemplate.opsForValue().set(STOCK_KEY, "5");
+        emptyBucket();
+
+        assertEquals(1, seckill("10"));
+        assertEquals("0", stringRedisTemplate.opsForHash().get(ADMIT_KEY, "tokens"));
+    }
+}
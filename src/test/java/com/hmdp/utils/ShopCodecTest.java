@@ -0,0 +1,76 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.entity.Shop;
+import lombok.val;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * ShopCodec 的编码和解码互逆，包括空字段和超过 writeUTF 上限的长字符串
+ */
+class ShopCodecTest {
+
+    private final ShopCodec codec = new ShopCodec();
+
+    private @NotNull Shop roundTrip(@NotNull Shop shop) throws IOException {
+        val buffer = new ByteArrayOutputStream();
+        try (val out = new DataOutputStream(buffer)) {
+            codec.encode(shop, out);
+        }
+        try (val in = new DataInputStream(new ByteArrayInputStream(buffer.toByteArray()))) {
+            return codec.decode(in);
+        }
+    }
+
+    @Test
+    void allFields() throws IOException {
+        val now = LocalDateTime.of(2021, 12, 22, 10, 30, 15);
+        val shop = new Shop()
+                .setId(1L)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setImages("https://example.com/1.jpg,https://example.com/2.jpg")
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(now)
+                .setUpdateTime(now.plusDays(1));
+        assertEquals(shop, roundTrip(shop));
+    }
+
+    @Test
+    void nullFieldsStayNull() throws IOException {
+        val decoded = roundTrip(new Shop().setId(2L).setSold(0));
+        assertEquals(2L, decoded.getId());
+        assertEquals(0, decoded.getSold());
+        assertNull(decoded.getName());
+        assertNull(decoded.getX());
+        assertNull(decoded.getCreateTime());
+    }
+
+    @Test
+    void stringsLongerThan64Kb() throws IOException {
+        // 多字节字符，UTF-8编码后远超 writeUTF 的 65535 字节上限
+        val images = StrUtil.repeat("图片", 40_000);
+        val decoded = roundTrip(new Shop().setId(3L).setImages(images).setOpenHours(images));
+        assertEquals(images, decoded.getImages());
+        assertEquals(images, decoded.getOpenHours());
+    }
+}
@@ -0,0 +1,161 @@
+package com.hmdp.utils;
+
+import com.hmdp.RedisTestSupport;
+import lombok.val;
+import lombok.var;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 订单消息恢复用到的脚本：stream_autoclaim.lua 分批认领空闲消息，
+ * stream_dead_letter.lua 把消息连同失败原因转入死信并确认
+ */
+class StreamRecoveryScriptTest {
+
+    private static final String STREAM_KEY = "test:lua:stream";
+    private static final String DLQ_KEY = "test:lua:stream.dlq";
+    private static final String FAILURE_KEY = "test:lua:stream.failures";
+    private static final String GROUP = "g1";
+
+    private static final List<String> DEAD_LETTER_KEYS = Arrays.asList(STREAM_KEY, DLQ_KEY, FAILURE_KEY);
+
+    private static LettuceConnectionFactory factory;
+
+    private static StringRedisTemplate stringRedisTemplate;
+
+    private RedisScripts redisScripts;
+
+    @BeforeAll
+    static void connect() {
+        factory = RedisTestSupport.connect();
+        stringRedisTemplate = RedisTestSupport.template(factory);
+    }
+
+    @AfterAll
+    static void disconnect() {
+        factory.destroy();
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        redisScripts = new RedisScripts(stringRedisTemplate);
+        stringRedisTemplate.delete(DEAD_LETTER_KEYS);
+        // 消息 1-1、1-2、1-3 都已投递给 c1，尚未确认
+        for (int i = 1; i <= 3; i++) {
+            val value = new HashMap<String, String>();
+            value.put("userId", Integer.toString(10 + i));
+            value.put("voucherId", "1");
+            stringRedisTemplate.opsForStream().add(
+                    StreamRecords.newRecord().in(STREAM_KEY).ofMap(value).withId(RecordId.of("1-" + i)));
+        }
+        stringRedisTemplate.opsForStream().createGroup(STREAM_KEY, ReadOffset.from("0"), GROUP);
+        stringRedisTemplate.opsForStream().read(
+                Consumer.from(GROUP, "c1"),
+                StreamReadOptions.empty().count(10),
+                StreamOffset.create(STREAM_KEY, ReadOffset.lastConsumed())
+        );
+    }
+
+    @AfterEach
+    void tearDown() {
+        stringRedisTemplate.delete(DEAD_LETTER_KEYS);
+    }
+
+    @SuppressWarnings("unchecked")
+    private @NotNull List<Object> autoclaim(@NotNull String start) {
+        return stringRedisTemplate.execute(
+                redisScripts.get("stream_autoclaim", List.class),
+                Collections.singletonList(STREAM_KEY),
+                GROUP, "c2", "0", start, "2"
+        );
+    }
+
+    private long pendingOf(@NotNull String consumer) {
+        return stringRedisTemplate.opsForStream()
+                .pending(STREAM_KEY, Consumer.from(GROUP, consumer), Range.unbounded(), 10)
+                .size();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void autoclaimPagesThroughIdleMessages() {
+        var result = autoclaim("0-0");
+        // 返回下次扫描起点和本批认领的消息
+        assertEquals("1-3", result.get(0));
+        val claimed = (List<List<Object>>) result.get(1);
+        assertEquals(2, claimed.size());
+        assertEquals("1-1", claimed.get(0).get(0));
+        val fields = (List<Object>) claimed.get(0).get(1);
+        assertEquals("11", fields.get(fields.indexOf("userId") + 1));
+        assertEquals(2, pendingOf("c2"));
+
+        result = autoclaim((String) result.get(0));
+        // 扫描到末尾后起点回到 0-0
+        assertEquals("0-0", result.get(0));
+        assertEquals(1, ((List<Object>) result.get(1)).size());
+        assertEquals(3, pendingOf("c2"));
+        assertEquals(0, pendingOf("c1"));
+    }
+
+    private String deadLetter(@NotNull String id) {
+        return stringRedisTemplate.execute(
+                redisScripts.get("stream_dead_letter", String.class),
+                DEAD_LETTER_KEYS,
+                GROUP, id, "6"
+        );
+    }
+
+    @Test
+    void deadLetterCopiesMessageWithReasonAndAcks() {
+        stringRedisTemplate.opsForHash().put(FAILURE_KEY, STREAM_KEY + "|1-2", "duplicate key");
+
+        assertEquals("duplicate key", deadLetter("1-2"));
+
+        val dead = stringRedisTemplate.opsForStream().range(DLQ_KEY, Range.unbounded());
+        assertEquals(1, dead.size());
+        val value = dead.get(0).getValue();
+        assertEquals("12", value.get("userId"));
+        assertEquals("1", value.get("voucherId"));
+        assertEquals(STREAM_KEY, value.get("sourceStream"));
+        assertEquals("1-2", value.get("sourceId"));
+        assertEquals("6", value.get("deliveries"));
+        assertEquals("duplicate key", value.get("reason"));
+        // 原消息已确认，失败原因已删除
+        assertEquals(2, pendingOf("c1"));
+        assertFalse(stringRedisTemplate.opsForHash().hasKey(FAILURE_KEY, STREAM_KEY + "|1-2"));
+    }
+
+    @Test
+    void deadLetterOfDeletedMessageOnlyAcks() {
+        stringRedisTemplate.opsForStream().delete(STREAM_KEY, "1-1");
+
+        assertEquals("unknown", deadLetter("1-1"));
+
+        assertFalse(stringRedisTemplate.hasKey(DLQ_KEY));
+        assertEquals(2, pendingOf("c1"));
+        assertTrue(stringRedisTemplate.opsForStream().range(STREAM_KEY, Range.closed("1-1", "1-1")).isEmpty());
+    }
+}
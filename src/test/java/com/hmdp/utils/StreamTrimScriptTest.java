@@ -0,0 +1,150 @@
+package com.hmdp.utils;
+
+import com.hmdp.RedisTestSupport;
+import lombok.val;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * stream_trim.lua：只裁剪已确认的消息，最早的待确认消息、未投递的消息和保留期内的消息都不会被删除。
+ * 近似裁剪只删除整个宏节点，裁剪数量只检查范围
+ */
+class StreamTrimScriptTest {
+
+    private static final String STREAM_KEY = "test:lua:stream";
+    private static final String GROUP = "g1";
+
+    /**
+     * 写入 1-1 到 1-300，投递 1-1 到 1-250，确认 1-1 到 1-200
+     */
+    private static final int WRITTEN = 300;
+    private static final int DELIVERED = 250;
+    private static final int ACKED = 200;
+
+    /**
+     * 保留期已经过去的id
+     */
+    private static final String KEEP_NONE = "9999999999999-0";
+
+    private static LettuceConnectionFactory factory;
+
+    private static StringRedisTemplate stringRedisTemplate;
+
+    private RedisScripts redisScripts;
+
+    @BeforeAll
+    static void connect() {
+        factory = RedisTestSupport.connect();
+        stringRedisTemplate = RedisTestSupport.template(factory);
+    }
+
+    @AfterAll
+    static void disconnect() {
+        factory.destroy();
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        redisScripts = new RedisScripts(stringRedisTemplate);
+        stringRedisTemplate.delete(STREAM_KEY);
+        for (int i = 1; i <= WRITTEN; i++) {
+            stringRedisTemplate.opsForStream().add(StreamRecords.newRecord()
+                    .in(STREAM_KEY)
+                    .ofMap(Collections.singletonMap("n", Integer.toString(i)))
+                    .withId(RecordId.of("1-" + i)));
+        }
+        stringRedisTemplate.opsForStream().createGroup(STREAM_KEY, ReadOffset.from("0"), GROUP);
+        stringRedisTemplate.opsForStream().read(
+                Consumer.from(GROUP, "c1"),
+                StreamReadOptions.empty().count(DELIVERED),
+                StreamOffset.create(STREAM_KEY, ReadOffset.lastConsumed())
+        );
+        ack(1, ACKED);
+    }
+
+    @AfterEach
+    void tearDown() {
+        stringRedisTemplate.delete(STREAM_KEY);
+    }
+
+    private void ack(int from, int to) {
+        val ids = new String[to - from + 1];
+        for (int i = from; i <= to; i++) {
+            ids[i - from] = "1-" + i;
+        }
+        stringRedisTemplate.opsForStream().acknowledge(STREAM_KEY, GROUP, ids);
+    }
+
+    /**
+     * [裁剪数量, stream长度, 待确认数量, 最早的待确认id, 最后投递的id, 最新的id]
+     */
+    @SuppressWarnings("unchecked")
+    private @NotNull List<Object> trim(@NotNull String keepAfter) {
+        return stringRedisTemplate.execute(
+                redisScripts.get("stream_trim", List.class),
+                Collections.singletonList(STREAM_KEY),
+                GROUP,
+                keepAfter
+        );
+    }
+
+    private boolean exists(int n) {
+        val id = "1-" + n;
+        return !stringRedisTemplate.opsForStream().range(STREAM_KEY, Range.closed(id, id)).isEmpty();
+    }
+
+    @Test
+    void trimsBehindEarliestPending() {
+        val result = trim(KEEP_NONE);
+        val trimmed = (Long) result.get(0);
+        assertTrue(trimmed > 0 && trimmed <= ACKED, "trimmed=" + trimmed);
+        assertEquals(WRITTEN - trimmed, result.get(1));
+        assertEquals((long) (DELIVERED - ACKED), result.get(2));
+        assertEquals("1-" + (ACKED + 1), result.get(3));
+        assertEquals("1-" + DELIVERED, result.get(4));
+        assertEquals("1-" + WRITTEN, result.get(5));
+        assertTrue(exists(ACKED + 1));
+    }
+
+    @Test
+    void keepsMessagesInsideRetention() {
+        val result = trim("1-1");
+        assertEquals(0L, result.get(0));
+        assertEquals((long) WRITTEN, result.get(1));
+        assertTrue(exists(1));
+    }
+
+    @Test
+    void keepsUndeliveredMessagesWhenNothingPending() {
+        ack(ACKED + 1, DELIVERED);
+        val result = trim(KEEP_NONE);
+        val trimmed = (Long) result.get(0);
+        assertTrue(trimmed > 0 && trimmed < DELIVERED, "trimmed=" + trimmed);
+        assertEquals(0L, result.get(2));
+        assertEquals("0-0", result.get(3));
+        assertTrue(exists(DELIVERED));
+        assertTrue(exists(DELIVERED + 1));
+        assertFalse(exists(1));
+    }
+}